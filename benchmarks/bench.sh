@@ -0,0 +1,71 @@
+#!/bin/sh
+#
+# Fetch the benchmark dependencies, build the library with the benchmarks and run them.
+#
+#   benchmarks/bench.sh fetch          download the jars into benchmarks/lib, unless present
+#   benchmarks/bench.sh build          compile the library and the benchmarks into build/
+#   benchmarks/bench.sh run [args]     run JMH, e.g. "run -prof gc TemplateBenchmark.bind"
+#   benchmarks/bench.sh [args]         all of the above
+#
+# Can be started from any directory. Needs a JDK 16 or newer and curl.
+
+set -e
+
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+LIB="$ROOT/benchmarks/lib"
+CLASSES="$ROOT/build/classes"
+BENCH_CLASSES="$ROOT/benchmarks/build/classes"
+REPO=${MAVEN_REPO:-https://repo1.maven.org/maven2}
+
+JARS="org/openjdk/jmh/jmh-core/1.37/jmh-core-1.37.jar
+org/openjdk/jmh/jmh-generator-annprocess/1.37/jmh-generator-annprocess-1.37.jar
+net/sf/jopt-simple/jopt-simple/5.0.4/jopt-simple-5.0.4.jar
+org/apache/commons/commons-math3/3.6.1/commons-math3-3.6.1.jar
+com/h2database/h2/2.2.224/h2-2.2.224.jar"
+
+
+fetch() {
+    mkdir -p "$LIB"
+    for jar in $JARS; do
+        file="$LIB/$(basename "$jar")"
+        if [ ! -f "$file" ]; then
+            echo "Fetching $(basename "$jar")"
+            curl -fsSL -o "$file.part" "$REPO/$jar"
+            mv "$file.part" "$file"
+        fi
+    done
+}
+
+
+build() {
+    rm -rf "$CLASSES" "$BENCH_CLASSES"
+    mkdir -p "$CLASSES" "$BENCH_CLASSES"
+    javac -d "$CLASSES" -cp "$ROOT/lib/*" $(find "$ROOT/src" -name '*.java')
+    javac -d "$BENCH_CLASSES" -cp "$CLASSES:$LIB/*" -processorpath "$LIB/*" \
+          $(find "$ROOT/benchmarks/src/main/java" -name '*.java')
+    cp -r "$ROOT/benchmarks/src/main/resources/"* "$BENCH_CLASSES/"
+}
+
+
+run() {
+    java -cp "$CLASSES:$BENCH_CLASSES:$LIB/*:$ROOT/lib/*" org.openjdk.jmh.Main "$@"
+}
+
+
+case "$1" in
+    fetch)
+        fetch
+        ;;
+    build)
+        build
+        ;;
+    run)
+        shift
+        run "$@"
+        ;;
+    *)
+        fetch
+        build
+        run "$@"
+        ;;
+esac
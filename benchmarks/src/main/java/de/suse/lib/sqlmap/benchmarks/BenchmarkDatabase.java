@@ -0,0 +1,97 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap.benchmarks;
+
+import de.suse.lib.sqlmap.SQLMapper;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * In-process H2 database, shared by the benchmarks.
+ *
+ * Every benchmark fork creates its tables again and fills them with the same rows,
+ * so the results do not depend on a database server or on data from the previous runs.
+ * The mapper's H2 URL can only point to a file database, which is kept in the
+ * directory of "sqlmap.bench.dir" (defaults to /tmp). The path should have no dashes.
+ *
+ * @author Bo Maryniuk
+ */
+final class BenchmarkDatabase {
+    static final String TAG = "bench";
+    static final String URL = "jdbc:h2:mem:bench";
+    static final String MAPPER_URL = "jdbc:h2://-" + System.getProperty("sqlmap.bench.dir", "/tmp") + "/sqlmapbench";
+    static final int ROWS = 10000;
+
+    private BenchmarkDatabase() {
+    }
+
+
+    /**
+     * Create mapper on the benchmark database.
+     *
+     * @param poolSize
+     * @return
+     * @throws Exception
+     */
+    static SQLMapper createMapper(int poolSize) throws Exception {
+        Properties config = new Properties();
+        config.setProperty("databases", BenchmarkDatabase.TAG);
+        config.setProperty(BenchmarkDatabase.TAG + ".url", BenchmarkDatabase.MAPPER_URL);
+        config.setProperty(BenchmarkDatabase.TAG + ".user", "sa");
+        config.setProperty(BenchmarkDatabase.TAG + ".password", "");
+        config.setProperty(BenchmarkDatabase.TAG + ".pool.min-size", "1");
+        config.setProperty(BenchmarkDatabase.TAG + ".pool.max-size", String.valueOf(poolSize));
+
+        SQLMapper mapper = new SQLMapper(config);
+        mapper.setResourceClass(BenchmarkDatabase.class);
+        mapper.setResourceRoot(BenchmarkDatabase.class.getPackage().getName());
+        mapper.setConcurrent(true);
+        mapper.connect(BenchmarkDatabase.TAG);
+
+        return mapper;
+    }
+
+
+    /**
+     * Create tables and fill the items.
+     *
+     * @param mapper
+     * @throws Exception
+     */
+    static void fill(SQLMapper mapper) throws Exception {
+        mapper.call("schema", null);
+        List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+        for (int id = 1; id <= BenchmarkDatabase.ROWS; id++) {
+            Map<String, Object> row = BenchmarkDatabase.params(id);
+            row.put("name", "item-" + id);
+            row.put("price", BigDecimal.valueOf(id, 2));
+            rows.add(row);
+        }
+        mapper.callBatch("item_insert", rows, 500);
+    }
+
+
+    static Map<String, Object> params(int id) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("id", id);
+        return params;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap.benchmarks;
+
+import de.suse.lib.sqlmap.Row;
+import de.suse.lib.sqlmap.SQLMapper;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end calls of SQLMapper on the in-process H2 database: single row selects,
+ * batched inserts and streaming scans.
+ *
+ * @author Bo Maryniuk
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class MapperBenchmark {
+    private static final int BATCH_ROWS = 1000;
+
+    @Param({"100"})
+    public int batchSize;
+
+    @Param({"1000"})
+    public int scanRows;
+
+    private SQLMapper mapper;
+    private List<Map<String, Object>> batch;
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.mapper = BenchmarkDatabase.createMapper(16);
+        BenchmarkDatabase.fill(this.mapper);
+
+        this.batch = new ArrayList<Map<String, Object>>();
+        for (int id = 1; id <= MapperBenchmark.BATCH_ROWS; id++) {
+            Map<String, Object> row = BenchmarkDatabase.params(id);
+            row.put("name", "log-" + id);
+            this.batch.add(row);
+        }
+    }
+
+
+    /**
+     * Inserted rows are dropped after every iteration, so the table does not grow through the run.
+     */
+    @TearDown(Level.Iteration)
+    public void clearLog() throws Exception {
+        this.mapper.call("item_log_clear", null);
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.mapper.shutdown();
+    }
+
+
+    @Benchmark
+    public List<Row> selectOne() throws Exception {
+        int id = ThreadLocalRandom.current().nextInt(BenchmarkDatabase.ROWS) + 1;
+        return this.mapper.query("item_by_id", BenchmarkDatabase.params(id), Row.MAPPER);
+    }
+
+
+    /**
+     * Throughput is reported in rows.
+     */
+    @Benchmark
+    @OperationsPerInvocation(MapperBenchmark.BATCH_ROWS)
+    public int insertBatch() throws Exception {
+        return this.mapper.callBatch("item_log_insert", this.batch, this.batchSize);
+    }
+
+
+    /**
+     * Throughput is reported in scans of scanRows rows.
+     */
+    @Benchmark
+    public long streamScan() throws Exception {
+        int from = ThreadLocalRandom.current().nextInt(BenchmarkDatabase.ROWS - this.scanRows);
+        Stream<Row> rows = this.mapper.stream("item_scan", BenchmarkDatabase.params(from), 256);
+        try {
+            return rows.limit(this.scanRows).count();
+        } finally {
+            rows.close();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap.benchmarks;
+
+import de.suse.lib.sqlmap.pool.EmbeddedConnectionPool;
+import java.sql.Connection;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * EmbeddedConnectionPool.getConnection() and return under contention.
+ *
+ * The same borrow/return cycle runs with 1 to 64 threads, on a pool smaller and
+ * larger than the number of threads, so both the lock-free path and the hand-off
+ * to waiting borrowers are measured.
+ *
+ * @author Bo Maryniuk
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class PoolBenchmark {
+    @Param({"8", "64"})
+    public int poolSize;
+
+    private EmbeddedConnectionPool pool;
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.pool = new EmbeddedConnectionPool(BenchmarkDatabase.URL + "-pool", "sa", "");
+        this.pool.setPoolSize(this.poolSize, this.poolSize);
+        if (!this.pool.prewarm(10000)) {
+            throw new IllegalStateException("Pool is not warm: " + this.pool.getState());
+        }
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.pool.shutdown();
+    }
+
+
+    private Connection borrowReturn() throws Exception {
+        Connection connection = this.pool.getConnection();
+        connection.close();
+        return connection;
+    }
+
+
+    @Benchmark
+    @Threads(1)
+    public Connection borrow1() throws Exception {
+        return this.borrowReturn();
+    }
+
+
+    @Benchmark
+    @Threads(4)
+    public Connection borrow4() throws Exception {
+        return this.borrowReturn();
+    }
+
+
+    @Benchmark
+    @Threads(16)
+    public Connection borrow16() throws Exception {
+        return this.borrowReturn();
+    }
+
+
+    @Benchmark
+    @Threads(64)
+    public Connection borrow64() throws Exception {
+        return this.borrowReturn();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap.benchmarks;
+
+import de.suse.lib.sqlmap.SQLParser;
+import de.suse.lib.sqlmap.SQLTemplate;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Template compilation, SQLParser.parse() and SQLParser.prepare() with binding,
+ * and binding alone.
+ *
+ * The state is per thread, and so is its in-memory database, so the benchmarks
+ * also run with several threads (-t).
+ *
+ * @author Bo Maryniuk
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class TemplateBenchmark {
+    private static final String QUERY = "select id, name, price from item "
+                                        + "where id > {int:id} and name like {string:name} and price < {decimal:price} "
+                                        + "and created > {date:since} "
+                                        + "order by {sql:order} limit {int:limit}";
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    private SQLTemplate template;
+    private Map<String, Object> params;
+    private Connection connection;
+    private PreparedStatement statement;
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.template = SQLTemplate.compile(TemplateBenchmark.QUERY);
+        this.params = new HashMap<String, Object>();
+        this.params.put("id", 42);
+        this.params.put("name", "item-%");
+        this.params.put("price", new java.math.BigDecimal("99.50"));
+        this.params.put("since", "2020.1.5");
+        this.params.put("order", "id");
+        this.params.put("limit", 10);
+
+        this.connection = DriverManager.getConnection(BenchmarkDatabase.URL + "-template" + TemplateBenchmark.DATABASES.incrementAndGet(),
+                                                      "sa", "");
+        this.connection.createStatement().execute("create table item (id int primary key, name varchar(64), price decimal(10, 2), "
+                                                  + "created date)");
+        this.statement = this.connection.prepareStatement(this.template.render(this.params));
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        this.statement.close();
+        this.connection.close();
+    }
+
+
+    @Benchmark
+    public SQLTemplate compile() throws Exception {
+        return SQLTemplate.compile(TemplateBenchmark.QUERY);
+    }
+
+
+    @Benchmark
+    public String parse() throws Exception {
+        return new SQLParser(this.template).parse(this.params).getPreparedStatement();
+    }
+
+
+    @Benchmark
+    public String render() {
+        return this.template.render(this.params);
+    }
+
+
+    /**
+     * Parse and bind. The statement is prepared by H2, which is included in the measure.
+     */
+    @Benchmark
+    public void prepare() throws Exception {
+        PreparedStatement statement = new SQLParser(this.template).parse(this.params).prepare(this.connection);
+        statement.close();
+    }
+
+
+    /**
+     * Bind to the statement, prepared once. Neither rendering, nor H2 is in the measure.
+     */
+    @Benchmark
+    public PreparedStatement bind() throws Exception {
+        this.template.bind(this.statement, this.params);
+        return this.statement;
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps rows to records or JavaBeans.
+ *
+ * Columns are matched to record components or bean setters by name, case insensitive
+ * and ignoring underscores, so "USER_ID" fills "userId". Matching is done once per
+ * result shape with method handles; rows are then read by column index and typed
+ * getters, without reflection. Columns without a property are skipped.
+ *
+ * @author Bo Maryniuk
+ */
+public class BeanRowMapper<T> implements RowMapper<T> {
+    private static final int MAX_SHAPES = 64;
+
+    private final Class<T> type;
+    private final MethodHandles.Lookup lookup;
+    private final Map<ColumnIndex, RowMapper.Reader<T>> readers;
+
+
+    /**
+     * Reads one column with the getter of the target type.
+     */
+    private interface ColumnReader {
+        Object read(ResultSet result, int column) throws SQLException;
+    }
+
+
+    public BeanRowMapper(Class<T> type) {
+        this.type = type;
+        this.readers = new ConcurrentHashMap<ColumnIndex, RowMapper.Reader<T>>();
+
+        MethodHandles.Lookup lookup;
+        try {
+            lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+        } catch (IllegalAccessException ex) {
+            lookup = MethodHandles.publicLookup();
+        }
+        this.lookup = lookup;
+    }
+
+
+    public static <T> BeanRowMapper<T> of(Class<T> type) {
+        return new BeanRowMapper<T>(type);
+    }
+
+
+    @Override
+    public RowMapper.Reader<T> resolve(ColumnIndex columns) throws SQLException {
+        RowMapper.Reader<T> reader = this.readers.get(columns);
+        if (reader == null) {
+            try {
+                reader = this.type.isRecord() ? this.resolveRecord(columns) : this.resolveBean(columns);
+            } catch (ReflectiveOperationException ex) {
+                throw new SQLException("Can not map rows to " + this.type.getName(), ex);
+            }
+
+            if (this.readers.size() >= BeanRowMapper.MAX_SHAPES) {
+                this.readers.clear();
+            }
+            this.readers.put(columns, reader);
+        }
+
+        return reader;
+    }
+
+
+    /**
+     * Records are created with the canonical constructor. Components without a column get null or zero.
+     */
+    private RowMapper.Reader<T> resolveRecord(ColumnIndex columns) throws ReflectiveOperationException {
+        RecordComponent[] components = this.type.getRecordComponents();
+        Class<?>[] parameterTypes = new Class<?>[components.length];
+        final int[] indexes = new int[components.length];
+        final ColumnReader[] getters = new ColumnReader[components.length];
+        final Object[] defaults = new Object[components.length];
+
+        Map<String, Integer> byName = BeanRowMapper.byName(columns);
+        for (int i = 0; i < components.length; i++) {
+            parameterTypes[i] = components[i].getType();
+            Integer column = byName.get(BeanRowMapper.normalize(components[i].getName()));
+            indexes[i] = column == null ? 0 : column;
+            getters[i] = BeanRowMapper.getter(parameterTypes[i]);
+            defaults[i] = BeanRowMapper.defaultValue(parameterTypes[i]);
+        }
+
+        final MethodHandle constructor = this.lookup.findConstructor(this.type, MethodType.methodType(void.class, parameterTypes))
+                .asType(MethodType.genericMethodType(components.length))
+                .asSpreader(Object[].class, components.length);
+
+        return new RowMapper.Reader<T>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public T read(ResultSet result) throws SQLException {
+                Object[] values = new Object[indexes.length];
+                for (int i = 0; i < indexes.length; i++) {
+                    Object value = indexes[i] == 0 ? null : getters[i].read(result, indexes[i]);
+                    values[i] = value == null ? defaults[i] : value;
+                }
+
+                try {
+                    return (T) constructor.invoke(values);
+                } catch (SQLException ex) {
+                    throw ex;
+                } catch (Throwable ex) {
+                    throw new SQLException("Can not create " + BeanRowMapper.this.type.getName(), ex);
+                }
+            }
+        };
+    }
+
+
+    /**
+     * Beans are created with the no-arg constructor and filled through the setters.
+     * Null values are not set to the primitive properties.
+     */
+    private RowMapper.Reader<T> resolveBean(ColumnIndex columns) throws ReflectiveOperationException {
+        final MethodHandle constructor = this.lookup.findConstructor(this.type, MethodType.methodType(void.class))
+                .asType(MethodType.methodType(Object.class));
+
+        Map<String, Method> setters = new HashMap<String, Method>();
+        for (Method method : this.type.getMethods()) {
+            if (method.getName().startsWith("set") && method.getName().length() > 3
+                    && method.getParameterCount() == 1 && !Modifier.isStatic(method.getModifiers())) {
+                setters.put(BeanRowMapper.normalize(method.getName().substring(3)), method);
+            }
+        }
+
+        List<Integer> indexList = new ArrayList<Integer>();
+        List<MethodHandle> handleList = new ArrayList<MethodHandle>();
+        List<ColumnReader> getterList = new ArrayList<ColumnReader>();
+        for (int column = 1; column <= columns.getColumnCount(); column++) {
+            Method setter = setters.remove(BeanRowMapper.normalize(columns.getLabel(column)));
+            if (setter != null) {
+                indexList.add(column);
+                handleList.add(this.lookup.unreflect(setter).asType(MethodType.methodType(void.class, Object.class, Object.class)));
+                getterList.add(BeanRowMapper.getter(setter.getParameterTypes()[0]));
+            }
+        }
+
+        final int[] indexes = new int[indexList.size()];
+        final MethodHandle[] handles = handleList.toArray(new MethodHandle[handleList.size()]);
+        final ColumnReader[] getters = getterList.toArray(new ColumnReader[getterList.size()]);
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = indexList.get(i);
+        }
+
+        return new RowMapper.Reader<T>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public T read(ResultSet result) throws SQLException {
+                try {
+                    Object bean = constructor.invokeExact();
+                    for (int i = 0; i < indexes.length; i++) {
+                        Object value = getters[i].read(result, indexes[i]);
+                        if (value != null || !handles[i].type().parameterType(1).isPrimitive()) {
+                            handles[i].invokeExact(bean, value);
+                        }
+                    }
+
+                    return (T) bean;
+                } catch (SQLException ex) {
+                    throw ex;
+                } catch (Throwable ex) {
+                    throw new SQLException("Can not fill " + BeanRowMapper.this.type.getName(), ex);
+                }
+            }
+        };
+    }
+
+
+    private static Map<String, Integer> byName(ColumnIndex columns) {
+        Map<String, Integer> byName = new HashMap<String, Integer>();
+        for (int column = columns.getColumnCount(); column > 0; column--) {
+            byName.put(BeanRowMapper.normalize(columns.getLabel(column)), column);
+        }
+
+        return byName;
+    }
+
+
+    private static String normalize(String name) {
+        StringBuilder buff = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c != '_') {
+                buff.append(Character.toLowerCase(c));
+            }
+        }
+
+        return buff.toString();
+    }
+
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == char.class) {
+            return (char) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == float.class) {
+            return 0f;
+        } else if (type == double.class) {
+            return 0d;
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Pick typed getter for the property type. Getters return null for SQL NULL.
+     */
+    private static ColumnReader getter(Class<?> type) {
+        if (type == long.class || type == Long.class) {
+            return new ColumnReader() {
+                @Override
+                public Object read(ResultSet result, int column) throws SQLException {
+                    long value = result.getLong(column);
+                    return result.wasNull() ? null : value;
+                }
+            };
+        } else if (type == int.class || type == Integer.class) {
+            return new ColumnReader() {
+                @Override
+                public Object read(ResultSet result, int column) throws SQLException {
+                    int value = result.getInt(column);
+                    return result.wasNull() ? null : value;
+                }
+            };
+        } else if (type == short.class || type == Short.class) {
+            return new ColumnReader() {
+                @Override
+                public Object read(ResultSet result, int column) throws SQLException {
+                    short value = result.getShort(column);
+                    return result.wasNull() ? null : value;
+                }
+            };
+        } else if (type == double.class || type == Double.class) {
+            return new ColumnReader() {
+                @Override
+                public Object read(ResultSet result, int column) throws SQLException {
+                    double value = result.getDouble(column);
+                    return result.wasNull() ? null : value;
+                }
+            };
+        } else if (type == float.class || type == Float.class) {
+            return new ColumnReader() {
+                @Override
+                public Object read(ResultSet result, int column) throws SQLException {
+                    float value = result.getFloat(column);
+                    return result.wasNull() ? null : value;
+                }
+            };
+        } else if (type == boolean.class || type == Boolean.class) {
+            return new ColumnReader() {
+                @Override
+                public Object read(ResultSet result, int column) throws SQLException {
+                    boolean value = result.getBoolean(column);
+                    return result.wasNull() ? null : value;
+                }
+            };
+        } else if (type == String.class) {
+            return new ColumnReader() {
+                @Override
+                public Object read(ResultSet result, int column) throws SQLException {
+                    return result.getString(column);
+                }
+            };
+        } else if (type == BigDecimal.class) {
+            return new ColumnReader() {
+                @Override
+                public Object read(ResultSet result, int column) throws SQLException {
+                    return result.getBigDecimal(column);
+                }
+            };
+        } else if (type == Date.class || type == LocalDate.class) {
+            final boolean local = type == LocalDate.class;
+            return new ColumnReader() {
+                @Override
+                public Object read(ResultSet result, int column) throws SQLException {
+                    Date value = result.getDate(column);
+                    return value == null || !local ? value : value.toLocalDate();
+                }
+            };
+        } else if (type == Time.class || type == LocalTime.class) {
+            final boolean local = type == LocalTime.class;
+            return new ColumnReader() {
+                @Override
+                public Object read(ResultSet result, int column) throws SQLException {
+                    Time value = result.getTime(column);
+                    return value == null || !local ? value : value.toLocalTime();
+                }
+            };
+        } else if (type == Timestamp.class || type == java.util.Date.class || type == LocalDateTime.class) {
+            final boolean local = type == LocalDateTime.class;
+            return new ColumnReader() {
+                @Override
+                public Object read(ResultSet result, int column) throws SQLException {
+                    Timestamp value = result.getTimestamp(column);
+                    return value == null || !local ? value : value.toLocalDateTime();
+                }
+            };
+        }
+
+        return new ColumnReader() {
+            @Override
+            public Object read(ResultSet result, int column) throws SQLException {
+                return result.getObject(column);
+            }
+        };
+    }
+}
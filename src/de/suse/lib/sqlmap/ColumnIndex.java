@@ -0,0 +1,147 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Column labels and types of a result, i.e. its shape, with labels resolved to indexes.
+ * Column indexes start at 1, as in JDBC. Labels are case insensitive.
+ *
+ * Compiled templates keep the index of their last result shape, so labels are resolved
+ * once and rows are read by index only. Indexes of the same shape are equal, so they
+ * can be used as keys of per-shape caches.
+ *
+ * @author Bo Maryniuk
+ */
+public final class ColumnIndex {
+    private final String[] labels;
+    private final int[] types;
+    private final Map<String, Integer> index;
+    private final int hash;
+
+
+    public ColumnIndex(ResultSetMetaData meta) throws SQLException {
+        this.labels = new String[meta.getColumnCount()];
+        this.types = new int[this.labels.length];
+        this.index = new HashMap<String, Integer>();
+        for (int i = 0; i < this.labels.length; i++) {
+            this.labels[i] = meta.getColumnLabel(i + 1);
+            this.types[i] = meta.getColumnType(i + 1);
+            String key = this.labels[i].toLowerCase(Locale.ROOT);
+            if (!this.index.containsKey(key)) {
+                this.index.put(key, i + 1);
+            }
+        }
+        this.hash = 31 * Arrays.hashCode(this.labels) + Arrays.hashCode(this.types);
+    }
+
+
+    /**
+     * Check if the result has the same shape.
+     *
+     * @param meta
+     * @return
+     * @throws SQLException
+     */
+    public boolean matches(ResultSetMetaData meta) throws SQLException {
+        if (meta.getColumnCount() != this.labels.length) {
+            return false;
+        }
+
+        for (int i = 0; i < this.labels.length; i++) {
+            if (meta.getColumnType(i + 1) != this.types[i] || !this.labels[i].equals(meta.getColumnLabel(i + 1))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    public int getColumnCount() {
+        return this.labels.length;
+    }
+
+
+    public String getLabel(int column) {
+        return this.labels[column - 1];
+    }
+
+
+    /**
+     * Get SQL type of the column, as in java.sql.Types.
+     *
+     * @param column
+     * @return
+     */
+    public int getType(int column) {
+        return this.types[column - 1];
+    }
+
+
+    /**
+     * Find column index by its label.
+     *
+     * @param label
+     * @return index or 0, if there is no such column.
+     */
+    public int find(String label) {
+        Integer column = this.index.get(label.toLowerCase(Locale.ROOT));
+        return column == null ? 0 : column;
+    }
+
+
+    /**
+     * Get column index by its label.
+     *
+     * @param label
+     * @return
+     */
+    public int findColumn(String label) {
+        int column = this.find(label);
+        if (column == 0) {
+            throw new IllegalArgumentException(String.format("Column \"%s\" is not in the result.", label));
+        }
+
+        return column;
+    }
+
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        } else if (!(other instanceof ColumnIndex)) {
+            return false;
+        }
+
+        ColumnIndex columns = (ColumnIndex) other;
+        return this.hash == columns.hash && Arrays.equals(this.labels, columns.labels) && Arrays.equals(this.types, columns.types);
+    }
+
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+}
@@ -16,6 +16,8 @@
 
 package de.suse.lib.sqlmap;
 
+import java.util.Properties;
+
 /**
  * Connection meta.
  *
@@ -26,12 +28,28 @@ public class ConnectionInfo {
     private String url;
     private String password;
     private String user;
+    private Properties options;
 
     public ConnectionInfo(String tag, String url, String user, String password) {
+        this(tag, url, user, password, new Properties());
+    }
+
+    /**
+     * Create connection meta with additional per-tag options,
+     * i.e. all "tag.*" properties with the tag prefix stripped.
+     *
+     * @param tag
+     * @param url
+     * @param user
+     * @param password
+     * @param options
+     */
+    public ConnectionInfo(String tag, String url, String user, String password, Properties options) {
         this.tag = tag;
         this.url = url;
         this.password = password;
         this.user = user;
+        this.options = options;
     }
 
     public String getPassword() {
@@ -53,4 +71,33 @@ public class ConnectionInfo {
     public String getVendor() {
         return this.getUrl().split("://")[0].replace("jdbc:", "").toLowerCase();
     }
+
+    public String getOption(String key) {
+        return this.options.getProperty(key);
+    }
+
+    /**
+     * Get numeric option of the tag.
+     *
+     * @param key
+     * @param defaultValue
+     * @return
+     */
+    public long getOption(String key, long defaultValue) {
+        String value = this.options.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(String.format("Option \"%s.%s\" should be a number, but is \"%s\".",
+                                                             this.tag, key, value));
+        }
+    }
+
+    public int getOption(String key, int defaultValue) {
+        return (int) this.getOption(key, (long) defaultValue);
+    }
 }
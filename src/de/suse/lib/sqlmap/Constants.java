@@ -24,4 +24,23 @@ public class Constants {
     public static final String DB_TAG_URL = "url";
     public static final String DB_TAG_USER = "user";
     public static final String DB_TAG_PASSWORD = "password";
+    public static final String DB_TAG_STATEMENT_CACHE_SIZE = "statement-cache-size";
+    public static final String DB_TAG_ASYNC_LIMIT = "async-limit";
+    public static final String DB_TAG_POOL_MIN_SIZE = "pool.min-size";
+    public static final String DB_TAG_POOL_MAX_SIZE = "pool.max-size";
+    public static final String DB_TAG_POOL_ACQUIRE_TIMEOUT = "pool.acquire-timeout";
+    public static final String DB_TAG_POOL_IDLE_TIMEOUT = "pool.idle-timeout";
+    public static final String DB_TAG_POOL_MAX_LIFETIME = "pool.max-lifetime";
+    public static final String DB_TAG_POOL_KEEPALIVE_TIME = "pool.keepalive-time";
+    public static final String DB_TAG_POOL_MAINTENANCE_INTERVAL = "pool.maintenance-interval";
+    public static final String DB_TAG_POOL_VALIDATION_TIMEOUT = "pool.validation-timeout";
+    public static final String DB_TAG_POOL_VALIDATION_SKIP_WINDOW = "pool.validation-skip-window";
+    public static final String DB_TAG_POOL_VALIDATION_QUERY = "pool.validation-query";
+    public static final String DB_TAG_POOL_FILL_THREADS = "pool.fill-threads";
+    public static final String DB_TAG_POOL_PREWARM_WAIT = "pool.prewarm-wait";
+    public static final String DB_TAG_POOL_LEAK_DETECTION_THRESHOLD = "pool.leak-detection-threshold";
+    public static final String DB_TAG_POOL_LEAK_TRACE_SAMPLING = "pool.leak-trace-sampling";
+    public static final String DB_TAG_SLOW_QUERY_THRESHOLD = "slow-query.threshold";
+    public static final String DB_TAG_SLOW_QUERY_EXPLAIN = "slow-query.explain";
+    public static final String DB_TAG_SLOW_QUERY_RATE = "slow-query.rate";
 }
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.text.ParseException;
+import java.text.ParsePosition;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.time.temporal.TemporalAccessor;
+
+/**
+ * Parameter binder for one placeholder type.
+ *
+ * Binders are stateless and shared: each template slot gets its binder resolved
+ * at compile time. Boxed primitives are bound through the primitive setters,
+ * strings are parsed without intermediate boxing and dates are parsed with
+ * thread-safe java.time formatters. Date formats are as lenient as they used
+ * to be with SimpleDateFormat: fields may have one digit, overflowing values
+ * roll over and trailing text is ignored.
+ *
+ * @author Bo Maryniuk
+ */
+abstract class ParameterBinder {
+    static final DateTimeFormatter DATE_FORMAT = ParameterBinder.lenient("y.M.d");
+    static final DateTimeFormatter TIME_FORMAT = ParameterBinder.lenient("H:m:s");
+    static final DateTimeFormatter TIMESTAMP_FORMAT = ParameterBinder.lenient("y.M.d H:m:s");
+
+    private static final ParameterBinder[] BINDERS = new ParameterBinder[SQLParser.TYPE_RAW + 1];
+    static {
+        ParameterBinder.BINDERS[SQLParser.TYPE_STRING] = new StringBinder();
+        ParameterBinder.BINDERS[SQLParser.TYPE_INT] = new IntBinder();
+        ParameterBinder.BINDERS[SQLParser.TYPE_DATE] = new DateBinder();
+        ParameterBinder.BINDERS[SQLParser.TYPE_TIME] = new TimeBinder();
+        ParameterBinder.BINDERS[SQLParser.TYPE_TIMESTAMP] = new TimestampBinder();
+        ParameterBinder.BINDERS[SQLParser.TYPE_DECIMAL] = new DecimalBinder();
+        ParameterBinder.BINDERS[SQLParser.TYPE_LONG] = new LongBinder();
+        ParameterBinder.BINDERS[SQLParser.TYPE_SHORT] = new ShortBinder();
+        ParameterBinder.BINDERS[SQLParser.TYPE_BOOLEAN] = new BooleanBinder();
+        ParameterBinder.BINDERS[SQLParser.TYPE_RAW] = new RawBinder();
+    }
+
+
+    /**
+     * Get binder for the type ID.
+     *
+     * @param typeId
+     * @return
+     */
+    static ParameterBinder forType(int typeId) {
+        return ParameterBinder.BINDERS[typeId];
+    }
+
+
+    private static DateTimeFormatter lenient(String pattern) {
+        return new DateTimeFormatterBuilder().parseLenient()
+                                             .appendPattern(pattern)
+                                             .toFormatter()
+                                             .withResolverStyle(ResolverStyle.LENIENT);
+    }
+
+
+    /**
+     * Parse date string from the beginning.
+     *
+     * @param value
+     * @param format
+     * @return
+     * @throws ParseException
+     */
+    static TemporalAccessor parse(String value, DateTimeFormatter format) throws ParseException {
+        try {
+            return format.parse(value, new ParsePosition(0));
+        } catch (DateTimeParseException ex) {
+            ParseException error = new ParseException(ex.getMessage(), ex.getErrorIndex());
+            error.initCause(ex);
+            throw error;
+        }
+    }
+
+
+    /**
+     * Bind value to the statement parameter.
+     *
+     * @param statement
+     * @param index
+     * @param value
+     * @throws SQLException
+     * @throws ParseException
+     */
+    abstract void bind(PreparedStatement statement, int index, Object value) throws SQLException, ParseException;
+
+
+    private static class StringBinder extends ParameterBinder {
+        @Override
+        void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+            statement.setString(index, value == null || value instanceof String ? (String) value : value.toString());
+        }
+    }
+
+
+    private static class RawBinder extends ParameterBinder {
+        @Override
+        void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+            statement.setObject(index, value);
+        }
+    }
+
+
+    private static class IntBinder extends ParameterBinder {
+        @Override
+        void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+            if (value == null) {
+                statement.setNull(index, Types.INTEGER);
+            } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                statement.setInt(index, ((Number) value).intValue());
+            } else if (value instanceof Long) {
+                statement.setInt(index, Math.toIntExact((Long) value));
+            } else {
+                statement.setInt(index, Integer.parseInt(value.toString()));
+            }
+        }
+    }
+
+
+    private static class ShortBinder extends ParameterBinder {
+        @Override
+        void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+            if (value == null) {
+                statement.setNull(index, Types.SMALLINT);
+            } else if (value instanceof Short || value instanceof Byte) {
+                statement.setShort(index, ((Number) value).shortValue());
+            } else {
+                statement.setShort(index, Short.parseShort(value.toString()));
+            }
+        }
+    }
+
+
+    private static class LongBinder extends ParameterBinder {
+        @Override
+        void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+            if (value == null) {
+                statement.setNull(index, Types.BIGINT);
+            } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                statement.setLong(index, ((Number) value).longValue());
+            } else {
+                statement.setLong(index, Long.parseLong(value.toString()));
+            }
+        }
+    }
+
+
+    private static class DecimalBinder extends ParameterBinder {
+        @Override
+        void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+            if (value == null) {
+                statement.setNull(index, Types.DECIMAL);
+            } else if (value instanceof BigDecimal) {
+                statement.setBigDecimal(index, (BigDecimal) value);
+            } else if (value instanceof BigInteger) {
+                statement.setBigDecimal(index, new BigDecimal((BigInteger) value));
+            } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                statement.setBigDecimal(index, BigDecimal.valueOf(((Number) value).longValue()));
+            } else if (value instanceof Double || value instanceof Float) {
+                statement.setBigDecimal(index, BigDecimal.valueOf(((Number) value).doubleValue()));
+            } else {
+                statement.setBigDecimal(index, new BigDecimal(value.toString()));
+            }
+        }
+    }
+
+
+    private static class BooleanBinder extends ParameterBinder {
+        @Override
+        void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+            if (value == null) {
+                statement.setNull(index, Types.BOOLEAN);
+            } else if (value instanceof Boolean) {
+                statement.setBoolean(index, (Boolean) value);
+            } else {
+                statement.setBoolean(index, Boolean.parseBoolean(value.toString()));
+            }
+        }
+    }
+
+
+    private static class DateBinder extends ParameterBinder {
+        @Override
+        void bind(PreparedStatement statement, int index, Object value) throws SQLException, ParseException {
+            if (value == null) {
+                statement.setNull(index, Types.DATE);
+            } else if (value instanceof Date) {
+                statement.setDate(index, (Date) value);
+            } else if (value instanceof java.util.Date) {
+                statement.setDate(index, new Date(((java.util.Date) value).getTime()));
+            } else if (value instanceof LocalDate) {
+                statement.setDate(index, Date.valueOf((LocalDate) value));
+            } else {
+                statement.setDate(index, Date.valueOf(LocalDate.from(ParameterBinder.parse(value.toString(), ParameterBinder.DATE_FORMAT))));
+            }
+        }
+    }
+
+
+    private static class TimeBinder extends ParameterBinder {
+        @Override
+        void bind(PreparedStatement statement, int index, Object value) throws SQLException, ParseException {
+            if (value == null) {
+                statement.setNull(index, Types.TIME);
+            } else if (value instanceof Time) {
+                statement.setTime(index, (Time) value);
+            } else if (value instanceof java.util.Date) {
+                statement.setTime(index, new Time(((java.util.Date) value).getTime()));
+            } else if (value instanceof LocalTime) {
+                statement.setTime(index, Time.valueOf((LocalTime) value));
+            } else {
+                statement.setTime(index, Time.valueOf(LocalTime.from(ParameterBinder.parse(value.toString(), ParameterBinder.TIME_FORMAT))));
+            }
+        }
+    }
+
+
+    private static class TimestampBinder extends ParameterBinder {
+        @Override
+        void bind(PreparedStatement statement, int index, Object value) throws SQLException, ParseException {
+            if (value == null) {
+                statement.setNull(index, Types.TIMESTAMP);
+            } else if (value instanceof Timestamp) {
+                statement.setTimestamp(index, (Timestamp) value);
+            } else if (value instanceof java.util.Date) {
+                statement.setTimestamp(index, new Timestamp(((java.util.Date) value).getTime()));
+            } else if (value instanceof LocalDateTime) {
+                statement.setTimestamp(index, Timestamp.valueOf((LocalDateTime) value));
+            } else {
+                statement.setTimestamp(index, Timestamp.valueOf(LocalDateTime.from(ParameterBinder.parse(value.toString(), ParameterBinder.TIMESTAMP_FORMAT))));
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Row of a streamed result. Column indexes start at 1, as in JDBC.
+ * Column labels are resolved once per result shape and shared by all rows.
+ *
+ * @author Bo Maryniuk
+ */
+public class Row {
+    private final ColumnIndex columns;
+    private final Object[] values;
+
+
+    private Row(ColumnIndex columns, Object[] values) {
+        this.columns = columns;
+        this.values = values;
+    }
+
+
+    /**
+     * Reads rows of one result shape.
+     */
+    static class Reader implements RowMapper.Reader<Row> {
+        private final ColumnIndex columns;
+
+        Reader(ColumnIndex columns) {
+            this.columns = columns;
+        }
+
+        @Override
+        public Row read(ResultSet result) throws SQLException {
+            Object[] values = new Object[this.columns.getColumnCount()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = result.getObject(i + 1);
+            }
+
+            return new Row(this.columns, values);
+        }
+    }
+
+
+    /**
+     * Mapper to generic rows.
+     */
+    public static final RowMapper<Row> MAPPER = new RowMapper<Row>() {
+        @Override
+        public RowMapper.Reader<Row> resolve(ColumnIndex columns) {
+            return new Row.Reader(columns);
+        }
+    };
+
+
+    public int getColumnCount() {
+        return this.values.length;
+    }
+
+
+    public String getColumnLabel(int column) {
+        return this.columns.getLabel(column);
+    }
+
+
+    /**
+     * Get column index by its label, case insensitive.
+     *
+     * @param label
+     * @return
+     */
+    public int findColumn(String label) {
+        return this.columns.findColumn(label);
+    }
+
+
+    public Object get(int column) {
+        return this.values[column - 1];
+    }
+
+
+    public Object get(String label) {
+        return this.get(this.findColumn(label));
+    }
+
+
+    public String getString(int column) {
+        Object value = this.get(column);
+        return value == null ? null : value.toString();
+    }
+
+
+    public String getString(String label) {
+        return this.getString(this.findColumn(label));
+    }
+
+
+    public long getLong(int column) {
+        Object value = this.get(column);
+        if (value == null) {
+            return 0;
+        }
+
+        return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+    }
+
+
+    public long getLong(String label) {
+        return this.getLong(this.findColumn(label));
+    }
+
+
+    public int getInt(int column) {
+        Object value = this.get(column);
+        if (value == null) {
+            return 0;
+        }
+
+        return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString());
+    }
+
+
+    public int getInt(String label) {
+        return this.getInt(this.findColumn(label));
+    }
+
+
+    @Override
+    public String toString() {
+        StringBuilder buff = new StringBuilder("{");
+        for (int i = 0; i < this.values.length; i++) {
+            if (i > 0) {
+                buff.append(", ");
+            }
+            buff.append(this.columns.getLabel(i + 1)).append('=').append(this.values[i]);
+        }
+
+        return buff.append('}').toString();
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps result rows to objects.
+ *
+ * Mapping is done in two steps: the mapper resolves the columns it needs once per
+ * result shape and returns a reader, which then reads each row by column index only.
+ *
+ * @author Bo Maryniuk
+ */
+public interface RowMapper<T> {
+    /**
+     * Reads one row of a result with the resolved shape.
+     */
+    public interface Reader<T> {
+        public T read(ResultSet result) throws SQLException;
+    }
+
+    /**
+     * Resolve columns of the result shape.
+     *
+     * @param columns
+     * @return
+     * @throws SQLException
+     */
+    public Reader<T> resolve(ColumnIndex columns) throws SQLException;
+}
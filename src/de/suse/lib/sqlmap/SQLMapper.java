@@ -22,13 +22,18 @@ import de.suse.lib.sqlmap.drivers.DBConnectionDriver;
 import de.suse.lib.sqlmap.drivers.H2EmbeddedServerDriver;
 import de.suse.lib.sqlmap.drivers.MariaDbDriver;
 import de.suse.lib.sqlmap.drivers.PgSQLDriver;
-import java.io.BufferedReader;
+import de.suse.lib.sqlmap.jfr.PrepareEvent;
+import de.suse.lib.sqlmap.jfr.QueryEvent;
+import de.suse.lib.sqlmap.jfr.TransactionEvent;
+import de.suse.lib.sqlmap.metrics.QueryMetrics;
+import de.suse.lib.sqlmap.metrics.QueryMetricsRegistry;
+import de.suse.lib.sqlmap.metrics.QueryTimer;
+import de.suse.lib.sqlmap.metrics.TraceBuffer;
+import de.suse.lib.sqlmap.pool.StatementCache;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.URISyntaxException;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
@@ -36,9 +41,28 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.naming.NamingException;
@@ -54,19 +78,52 @@ public class SQLMapper {
     private static final String DB_VENDOR_H2 = "h2";
     private static final String DB_VENDOR_MYSQL = "mysql";
     private static final String DB_VENDOR_MARIADB = "mariadb";
+    private static final Logger LOG = Logger.getLogger(SQLMapper.class.getName());
 
     private Map<String, ConnectionInfo> connectionInfo;
-    private DBConnectionDriver connectionDriver;
-    private Class resourcesClass;
+    private volatile DBConnectionDriver connectionDriver;
     private ConnectionCallback connectionCallback;
-    private boolean debug = false;
-    private String tag;
-    private boolean stderrVerbose = false;
-    private String resourceRoot;
+    private volatile boolean debug = false;
+    private volatile String tag;
+    private volatile boolean stderrVerbose = false;
+    private TemplateRepository templates;
+    private StatementCache statementCache;
+    private volatile boolean concurrent = false;
+    private Map<ResultSet, Lease> leases;
+    private Map<String, DBConnectionDriver> drivers;
+    private final ReentrantLock connectLock = new ReentrantLock();
+    private volatile Executor asyncExecutor;
+    private Map<String, Semaphore> asyncLimits;
+    private QueryMetricsRegistry metrics;
+    private Map<String, SlowQueryLog> slowQueryLogs;
+    private TraceBuffer trace;
+
+
+    /**
+     * Connection and statement, held by an open result in the concurrent mode.
+     */
+    private static class Lease {
+        private final Connection connection;
+        private final StatementCache statementCache;
+        private final PreparedStatement statement;
+
+        Lease(Connection connection, StatementCache statementCache, PreparedStatement statement) {
+            this.connection = connection;
+            this.statementCache = statementCache;
+            this.statement = statement;
+        }
+    }
     
     
     private void init(Properties config) throws SQLException {
         this.connectionInfo = new HashMap<String, ConnectionInfo>();
+        this.templates = new TemplateRepository();
+        this.leases = new ConcurrentHashMap<ResultSet, Lease>();
+        this.asyncLimits = new ConcurrentHashMap<String, Semaphore>();
+        this.drivers = new ConcurrentHashMap<String, DBConnectionDriver>();
+        this.metrics = new QueryMetricsRegistry();
+        this.slowQueryLogs = new ConcurrentHashMap<String, SlowQueryLog>();
+        this.trace = new TraceBuffer();
         this.parseConnectionInfo(config);
         this.connectionCallback = null;
     }
@@ -77,21 +134,12 @@ public class SQLMapper {
      * @param resourceRoot 
      */
     public void setResourceRoot(String resourceRoot) {
-        if (resourceRoot == null) {
-            resourceRoot = "";
-        } else {
-            resourceRoot = resourceRoot.trim();
-            if (!resourceRoot.endsWith(".")) {
-                resourceRoot += '.';
-            }
-        }
-
-        this.resourceRoot = resourceRoot;
+        this.templates.setResourceRoot(resourceRoot);
     }
 
 
     /**
-     * Set STDERR verbose.
+     * Set verbose connecting. Connection details are logged on the INFO level.
      * @param stderrVerbose
      */
     public void setStderrVerbose(boolean stderrVerbose) {
@@ -152,14 +200,43 @@ public class SQLMapper {
     }
 
 
+    /**
+     * Set debug mode. Rendered SQL is kept in the call traces and errors of the statement
+     * preparation are logged in detail.
+     *
+     * @param debug
+     * @see #getTrace()
+     */
     public void setDebug(boolean debug) {
         this.debug = debug;
     }
+
+
+    /**
+     * Set concurrent mode. In concurrent mode one mapper can be shared between threads:
+     * each call leases a pooled connection for the duration of the statements and
+     * releases it afterwards. If the call returned a ResultSet, the connection is held
+     * until the result is closed with close(ResultSet).
+     *
+     * @param concurrent
+     * @return
+     */
+    public SQLMapper setConcurrent(boolean concurrent) {
+        this.concurrent = concurrent;
+        return this;
+    }
+
+
+    public boolean isConcurrent() {
+        return this.concurrent;
+    }
     
     
 
     /**
      * Connect to the database using a tag.
+     * Drivers and their connection pools are created once per tag and kept until close(),
+     * so switching tags or reconnecting does not open new connections.
      * 
      * @param tag 
      */
@@ -167,7 +244,6 @@ public class SQLMapper {
             throws URISyntaxException,
                    ClassNotFoundException,
                    Exception {
-        this.close();
         if (tag != null) {
             this.tag = tag;
         }
@@ -176,40 +252,83 @@ public class SQLMapper {
             throw new Exception("Don't known what connect to: the tag is empty.");
         }
 
-        ConnectionInfo info = this.connectionInfo.get(this.tag);
+        DBConnectionDriver driver = this.getDriver(this.tag);
+        DBConnectionDriver current = this.connectionDriver;
+        if (current != null && current != driver) {
+            current.close(); // Return current connection of the previous tag
+            this.statementCache = null;
+        }
+        this.connectionDriver = driver;
+
+        return this;
+    }
+
+
+    /**
+     * Get connected driver of the tag. The driver is created on the first use.
+     */
+    private DBConnectionDriver getDriver(String tag) throws Exception {
+        DBConnectionDriver driver = this.drivers.get(tag);
+        if (driver != null) {
+            return driver;
+        }
+
+        this.connectLock.lock();
+        try {
+            driver = this.drivers.get(tag);
+            if (driver == null) {
+                driver = this.createDriver(tag);
+                this.drivers.put(tag, driver);
+            }
+        } finally {
+            this.connectLock.unlock();
+        }
+
+        return driver;
+    }
+
+
+    private DBConnectionDriver createDriver(String tag) throws Exception {
+        ConnectionInfo info = this.connectionInfo.get(tag);
+        if (info == null) {
+            throw new Exception(String.format("Database \"%s\" is not configured.", tag));
+        }
+
+        DBConnectionDriver driver;
         if (info.getVendor().equals("postgresql")) {
-            this.connectionDriver = new PgSQLDriver(info.getUrl()).setUseSSL(false).connect(info.getUser(), info.getPassword());
+            driver = new PgSQLDriver(info).setUseSSL(false);
         } else if (info.getVendor().equals("derby")) {
-            this.connectionDriver = new ApacheDerbyEmbeddedDriver(info);
+            driver = new ApacheDerbyEmbeddedDriver(info);
         } else if (info.getVendor().equals("h2")) {
-            this.connectionDriver = new H2EmbeddedDriver(info);
+            driver = new H2EmbeddedDriver(info);
         } else if (info.getVendor().equals("h2:tcp")) {
-            this.connectionDriver = new H2EmbeddedServerDriver(info);
+            driver = new H2EmbeddedServerDriver(info);
         } else if (info.getVendor().equals(SQLMapper.DB_VENDOR_MARIADB) || info.getVendor().equals(SQLMapper.DB_VENDOR_MYSQL)) {
-            this.connectionDriver = new MariaDbDriver(info.getUrl()).connect(info.getUser(), info.getPassword());
+            driver = new MariaDbDriver(info);
         } else {
             throw new Exception(String.format("Vendor \"%s\" is not supported.", info.getVendor()));
         }
 
         if (this.stderrVerbose) {
-            System.err.println("INFO: " + info.getUrl());
+            LOG.log(Level.INFO, "Connecting to {0}", info.getUrl());
         }
 
-        this.connectionDriver.setConnectionCallback(this.connectionCallback);
-        this.connectionDriver.connect(info.getUser(), info.getPassword());
+        driver.setConnectionCallback(this.connectionCallback);
+        driver.connect(info.getUser(), info.getPassword());
 
         if (this.stderrVerbose) {
-            System.err.println("Connection: " + this.connectionDriver.getConnection());
+            LOG.log(Level.INFO, "Connection: {0}, DB: {1}, URL: {2}",
+                    new Object[]{driver.getConnection(), driver.getDatabaseProductName(), driver.getDatabaseUrl()});
         }
 
-        String db = this.connectionDriver.getConnection().getMetaData().getDatabaseProductName();
-        String url = this.connectionDriver.getConnection().getMetaData().getURL();
-
-        if (this.stderrVerbose) {
-            System.err.println("DB: " + db + ", URL: " + url);
+        if (this.concurrent) {
+            // Calls lease their own connections, the callback sees only the connect and the shutdown
+            driver.setConnectionCallback(null);
+            driver.close();
+            driver.setConnectionCallback(this.connectionCallback);
         }
 
-        return this;
+        return driver;
     }
     
 
@@ -233,10 +352,18 @@ public class SQLMapper {
                 continue;
             }
             
+            Properties options = new Properties();
+            for (String key : config.stringPropertyNames()) {
+                if (key.startsWith(tag + ".")) {
+                    options.setProperty(key.substring(tag.length() + 1), config.getProperty(key));
+                }
+            }
+
             ConnectionInfo info = new ConnectionInfo(tag,
                     config.getProperty(tag + "." + de.suse.lib.sqlmap.Constants.DB_TAG_URL),
                     config.getProperty(tag + "." + de.suse.lib.sqlmap.Constants.DB_TAG_USER),
-                    config.getProperty(tag + "." + de.suse.lib.sqlmap.Constants.DB_TAG_PASSWORD));
+                    config.getProperty(tag + "." + de.suse.lib.sqlmap.Constants.DB_TAG_PASSWORD),
+                    options);
             if (info.getUser() != null && info.getUrl() != null) {
                 this.connectionInfo.put(tag, info);
             }
@@ -258,127 +385,952 @@ public class SQLMapper {
             throws SQLIntegrityConstraintViolationException,
                    SQLException,
                    Exception {
-        if (this.connectionDriver == null || !this.connectionDriver.isConnected()) {
-            this.connect(null); // reuse last tag
+        if (params == null) {
+            params = new HashMap<Object, Object>();
         }
-        
+
+        SlowQueryLog slowLog = this.getSlowQueryLog(this.tag);
+        QueryEvent event = new QueryEvent();
+        event.begin();
+        QueryTimer timer = this.metrics.start(querypath, slowLog.isEnabled() || event.isEnabled() || this.trace.isEnabled());
+        SQLTemplate[] queryTemplates;
+        Connection connection;
+        try {
+            queryTemplates = this.getCompiledTemplate(querypath);
+            long mark = timer.lap(QueryMetrics.Phase.TEMPLATE, timer.getStarted());
+            connection = this.acquireConnection();
+            timer.lap(QueryMetrics.Phase.ACQUIRE, mark);
+        } catch (Exception ex) {
+            this.failed(timer, event, ex);
+            throw ex;
+        }
+
+        ResultSet result;
+        try {
+            result = this.call(connection, queryTemplates, params, null, timer);
+        } catch (Exception ex) {
+            this.failed(timer, event, ex);
+            this.releaseConnection(connection);
+            throw ex;
+        }
+        // The connection is already released or leased by the result
+        this.finish(slowLog, timer, event, queryTemplates, params, result != null ? -1 : timer.getRows());
+
+        return result;
+    }
+
+
+    /**
+     * Call SQL query and map all rows of its result. Column labels are resolved by the mapper
+     * once per compiled statement and result shape, the rows are then read by column index.
+     * Returns an empty list, if the query has no result.
+     *
+     * @param querypath
+     * @param params
+     * @param mapper
+     * @return
+     * @throws SQLIntegrityConstraintViolationException
+     * @throws SQLException
+     * @throws Exception
+     */
+    public <T> List<T> query(String querypath, Map<?, ?> params, RowMapper<T> mapper)
+            throws SQLIntegrityConstraintViolationException,
+                   SQLException,
+                   Exception {
         if (params == null) {
-            params = new HashMap();
+            params = new HashMap<Object, Object>();
+        }
+
+        SlowQueryLog slowLog = this.getSlowQueryLog(this.tag);
+        QueryEvent event = new QueryEvent();
+        event.begin();
+        QueryTimer timer = this.metrics.start(querypath, slowLog.isEnabled() || event.isEnabled() || this.trace.isEnabled());
+        SQLTemplate[] queryTemplates;
+        Connection connection;
+        try {
+            queryTemplates = this.getCompiledTemplate(querypath);
+            long mark = timer.lap(QueryMetrics.Phase.TEMPLATE, timer.getStarted());
+            connection = this.acquireConnection();
+            timer.lap(QueryMetrics.Phase.ACQUIRE, mark);
+        } catch (Exception ex) {
+            this.failed(timer, event, ex);
+            throw ex;
         }
 
+        SQLTemplate[] resultTemplate = new SQLTemplate[1];
+        ResultSet result;
+        try {
+            result = this.call(connection, queryTemplates, params, resultTemplate, timer);
+        } catch (Exception ex) {
+            this.failed(timer, event, ex);
+            this.releaseConnection(connection);
+            throw ex;
+        }
+
+        List<T> rows = new ArrayList<T>();
+        if (result == null) {
+            this.finish(slowLog, timer, event, queryTemplates, params, timer.getRows());
+            return rows;
+        }
+
+        try {
+            RowMapper.Reader<T> reader = mapper.resolve(resultTemplate[0].getColumns(result.getMetaData()));
+            while (result.next()) {
+                rows.add(reader.read(result));
+            }
+        } catch (SQLException ex) {
+            this.failed(timer, event, ex);
+            throw ex;
+        } finally {
+            this.close(result);
+        }
+        this.finish(slowLog, timer, event, queryTemplates, params, timer.getRows() + rows.size());
+
+        return rows;
+    }
+
+
+    /**
+     * Call SQL query asynchronously. The mapper should be in the concurrent mode.
+     * The ResultSet, if any, holds its pooled connection until closed with close(ResultSet).
+     *
+     * @param querypath
+     * @param params
+     * @return
+     * @see #setConcurrent(boolean)
+     * @see #setAsyncExecutor(java.util.concurrent.Executor)
+     */
+    public CompletableFuture<ResultSet> callAsync(final String querypath, final Map<?, ?> params) {
+        return this.async(new Callable<ResultSet>() {
+            @Override
+            public ResultSet call() throws Exception {
+                return SQLMapper.this.call(querypath, params);
+            }
+        });
+    }
+
+
+    /**
+     * Call SQL query asynchronously and map all rows of its result.
+     * The connection is released before the future completes.
+     *
+     * @param querypath
+     * @param params
+     * @param mapper
+     * @return
+     */
+    public <T> CompletableFuture<List<T>> queryAsync(final String querypath, final Map<?, ?> params, final RowMapper<T> mapper) {
+        return this.async(new Callable<List<T>>() {
+            @Override
+            public List<T> call() throws Exception {
+                return SQLMapper.this.query(querypath, params, mapper);
+            }
+        });
+    }
+
+
+    /**
+     * Run the task on the async executor, within the concurrency limit of the current tag.
+     * Waiting for the limit happens on the executor thread, which is cheap for virtual threads.
+     */
+    private <T> CompletableFuture<T> async(final Callable<T> task) {
+        if (!this.concurrent) {
+            throw new IllegalStateException("Asynchronous calls require the concurrent mode.");
+        }
+
+        final Semaphore limit = this.getAsyncLimit(this.tag);
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        this.getAsyncExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    limit.acquire();
+                    try {
+                        future.complete(task.call());
+                    } finally {
+                        limit.release();
+                    }
+                } catch (Throwable ex) {
+                    future.completeExceptionally(ex);
+                }
+            }
+        });
+
+        return future;
+    }
+
+
+    /**
+     * Get slow query log of the tag, as set by the "tag.slow-query.*" options.
+     * It is disabled without a threshold.
+     */
+    private SlowQueryLog getSlowQueryLog(String tag) {
+        String key = tag != null ? tag : "";
+        SlowQueryLog slowLog = this.slowQueryLogs.get(key);
+        if (slowLog == null) {
+            ConnectionInfo info = tag != null ? this.connectionInfo.get(tag) : null;
+            slowLog = info != null ? new SlowQueryLog(tag,
+                                                      info.getOption(Constants.DB_TAG_SLOW_QUERY_THRESHOLD, 0L),
+                                                      Boolean.parseBoolean(info.getOption(Constants.DB_TAG_SLOW_QUERY_EXPLAIN)),
+                                                      info.getOption(Constants.DB_TAG_SLOW_QUERY_RATE, SlowQueryLog.DEFAULT_RATE))
+                                   : SlowQueryLog.DISABLED;
+            SlowQueryLog current = this.slowQueryLogs.putIfAbsent(key, slowLog);
+            if (current != null) {
+                slowLog = current;
+            }
+        }
+
+        return slowLog;
+    }
+
+
+    /**
+     * Finish timing of a successful call and log it, if it was slow.
+     *
+     * @param rows Rows read or changed, -1 if the result is read later by the caller.
+     */
+    private void finish(SlowQueryLog slowLog, QueryTimer timer, QueryEvent event, SQLTemplate[] queryTemplates, Map<?, ?> params,
+                        long rows) {
+        if (slowLog.isSlow(timer.finish())) {
+            slowLog.log(timer, queryTemplates, params, this.drivers.get(slowLog.getTag()), this.getAsyncExecutor());
+        }
+        this.trace.record(this.tag, timer.getQuerypath(), timer.getSqlHash(), this.debug ? timer.getStatement() : null,
+                          timer.getElapsed(), rows, null);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.tag = this.tag;
+            event.querypath = timer.getQuerypath();
+            event.statements = queryTemplates.length;
+            event.rows = rows;
+            event.commit();
+        }
+    }
+
+
+    /**
+     * Count failed call. With fine logging, recent calls are dumped from the trace buffer.
+     */
+    private void failed(QueryTimer timer, QueryEvent event, Exception error) {
+        timer.failed();
+        this.trace.record(this.tag, timer.getQuerypath(), timer.getSqlHash(), this.debug ? timer.getStatement() : null,
+                          timer.getElapsed(), -1, String.valueOf(error.getLocalizedMessage()));
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "Call of {0} failed, recent calls:{1}{2}",
+                    new Object[]{timer.getQuerypath(), System.lineSeparator(), this.trace.dump()});
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.tag = this.tag;
+            event.querypath = timer.getQuerypath();
+            event.rows = -1;
+            event.failed = true;
+            event.commit();
+        }
+    }
+
+
+    /**
+     * Get concurrency limit of async calls for the tag, as set by the "tag.async-limit" option.
+     * Zero or no option means no limit.
+     */
+    private Semaphore getAsyncLimit(String tag) {
+        String key = tag != null ? tag : "";
+        Semaphore limit = this.asyncLimits.get(key);
+        if (limit == null) {
+            ConnectionInfo info = tag != null ? this.connectionInfo.get(tag) : null;
+            int permits = info != null ? info.getOption(Constants.DB_TAG_ASYNC_LIMIT, 0) : 0;
+            limit = new Semaphore(permits > 0 ? permits : Integer.MAX_VALUE, true);
+            Semaphore current = this.asyncLimits.putIfAbsent(key, limit);
+            if (current != null) {
+                limit = current;
+            }
+        }
+
+        return limit;
+    }
+
+
+    /**
+     * Set executor for the asynchronous calls.
+     * By default a virtual thread per call is used, if the runtime has virtual threads.
+     *
+     * @param asyncExecutor
+     * @return
+     */
+    public SQLMapper setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+        return this;
+    }
+
+
+    private Executor getAsyncExecutor() {
+        Executor executor = this.asyncExecutor;
+        return executor != null ? executor : AsyncExecutorHolder.EXECUTOR;
+    }
+
+
+    /**
+     * Default executor of async calls, created on first use.
+     * The library needs Java 16 (records in BeanRowMapper), virtual threads need Java 21.
+     * They are used on Java 21 and later; the method is looked up reflectively, as the library
+     * is built for Java 16. Older runtimes get a cached pool of daemon threads.
+     */
+    private static class AsyncExecutorHolder {
+        private static final int VIRTUAL_THREADS_VERSION = 21;
+        private static final ExecutorService EXECUTOR = AsyncExecutorHolder.create();
+
+        private static ExecutorService create() {
+            if (Runtime.version().feature() >= VIRTUAL_THREADS_VERSION) {
+                try {
+                    return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                } catch (Exception ex) {
+                    LOG.log(Level.WARNING, "Can not create virtual threads, using platform threads for async calls.", ex);
+                }
+            }
+
+            return Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger counter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "tiny-sqlmap-async-" + this.counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+
+    /**
+     * Run compiled statements on the connection.
+     * The statement, that produced the result, is put to resultTemplate, if given.
+     * Phases of every statement are recorded to the timer.
+     */
+    private ResultSet call(Connection connection, SQLTemplate[] queryTemplates, Map<?, ?> params, SQLTemplate[] resultTemplate,
+                           QueryTimer timer)
+            throws SQLIntegrityConstraintViolationException,
+                   SQLException,
+                   Exception {
         ResultSet result = null;
-        String[] queryTemplates = this.getTemplateFromResource(querypath).split(";");
-        
-        // Check template conventions
-        if (queryTemplates.length == 0) {
-            throw new Exception("None of SQL statements has been found in the given SQL template.");
-        } else if (queryTemplates.length > 1) {
-            int selective = 0;
+        PreparedStatement resultStatement = null;
+        StatementCache statementCache = this.getStatementCache(connection);
+        boolean done = false;
+
+        try {
+            // Process operations
+            boolean commit = false;
             for (int i = 0; i < queryTemplates.length; i++) {
-                if (queryTemplates[i].toLowerCase().startsWith("select")) {
-                    selective++;
-                    if (selective > 1) {
-                        throw new Exception("There can be only one SELECT statement in a multi-statement query.");
+                PreparedStatement statement = null;
+                try {
+                    try {
+                        long mark = timer.mark();
+                        String query = queryTemplates[i].render(params);
+                        timer.addStatement(query);
+                        long rendered = timer.mark();
+                        statement = this.prepare(statementCache, query, timer);
+                        long prepared = timer.mark();
+                        queryTemplates[i].bind(statement, params);
+                        timer.record(QueryMetrics.Phase.PREPARE, prepared - rendered);
+                        timer.record(QueryMetrics.Phase.BIND, rendered - mark + timer.mark() - prepared);
+                    } catch (SQLIntegrityConstraintViolationException ex) {
+                        if (this.debug) {
+                            LOG.log(Level.WARNING, "Integrity error while preparing: {0}", ex.getLocalizedMessage());
+                        }
+                        this.rollback(connection, timer);
+                        throw new SQLIntegrityConstraintViolationException(ex);
+                    } catch (SQLException ex) {
+                        if (this.debug) {
+                            LOG.log(Level.SEVERE, "SQL error while preparing: {0}", ex.getLocalizedMessage());
+                        } else {
+                            LOG.log(Level.SEVERE, "SQL query failed.");
+                        }
+
+                        this.rollback(connection, timer);
+                        throw new SQLException(ex);
+                    } catch (Exception ex) {
+                        LOG.log(Level.SEVERE, "Unhlandled error while preparing: {0}", ex.getLocalizedMessage());
+                        this.rollback(connection, timer);
+                        throw new Exception(ex);
+                    }
+
+                    // Execute operations. Statement, that returned a result, is released on close(result).
+                    // Only the last result is returned, earlier ones are closed right away.
+                    try {
+                        long mark = timer.mark();
+                        boolean hasResult = statement.execute();
+                        timer.lap(QueryMetrics.Phase.EXECUTE, mark);
+                        if (hasResult) {
+                            this.discard(statementCache, result, resultStatement);
+                            result = statement.getResultSet();
+                            resultStatement = statement;
+                            statement = null;
+                            if (resultTemplate != null) {
+                                resultTemplate[0] = queryTemplates[i];
+                            }
+                        } else {
+                            commit = true;
+                            timer.addRows(statement.getUpdateCount());
+                        }
+                    } catch (SQLIntegrityConstraintViolationException ex) {
+                        LOG.log(Level.SEVERE, "Integrity error: {0}", ex.getLocalizedMessage());
+                        this.rollback(connection, timer);
+                        throw new SQLIntegrityConstraintViolationException(ex);
+                    } catch (SQLException ex) {
+                        LOG.log(Level.SEVERE, "SQL error: {0}", ex.getLocalizedMessage());
+                        this.rollback(connection, timer);
+                        throw new SQLException(ex);
+                    } catch (Exception ex) {
+                        LOG.log(Level.SEVERE, "Unhandled error: {0}", ex.getLocalizedMessage());
+                        this.rollback(connection, timer);
+                        throw new Exception(ex);
                     }
+                } finally {
+                    statementCache.release(statement);
                 }
             }
-        }
 
-        // Process operations
-        boolean commit = false;
-        for (int i = 0; i < queryTemplates.length; i++) {
-            if (this.debug) {
-                System.err.println("Processing statement:");
-                System.err.println("-----");
-                System.err.println(queryTemplates[i]);
-                System.err.println("-----");
+            // Commit data, if required.
+            if (commit) {
+                this.commit(connection, timer);
             }
-            
-            String query = queryTemplates[i].trim();
-            if (query.isEmpty()) {
-                continue;
+
+            done = true;
+        } finally {
+            if (!done) {
+                this.discard(statementCache, result, resultStatement);
+            }
+        }
+
+        if (this.concurrent) {
+            if (result != null) {
+                this.leases.put(result, new Lease(connection, statementCache, resultStatement));
+            } else {
+                this.releaseConnection(connection);
             }
+        }
+
+        return result;
+    }
 
-            PreparedStatement statement = null;
+
+    /**
+     * Close the result and release its statement to the statement cache.
+     * Nothing happens, if there is no result.
+     */
+    private void discard(StatementCache statementCache, ResultSet result, PreparedStatement statement) {
+        if (result != null) {
             try {
-                statement = new SQLParser(query).parse(params).prepare(this.connectionDriver.getConnection());
-            } catch (SQLIntegrityConstraintViolationException ex) {
-                if (this.debug) {
-                    Logger.getLogger(SQLMapper.class.getName()).log(Level.WARNING, "Integrity error while preparing: {0}", ex.getLocalizedMessage());
+                result.close();
+            } catch (SQLException ex) {
+                LOG.log(Level.WARNING, null, ex);
+            }
+        }
+
+        statementCache.release(statement);
+    }
+
+
+    /**
+     * Get connection for a call. In concurrent mode the connection is leased from the pool,
+     * otherwise the current connection of the mapper is used.
+     *
+     * @return
+     * @throws Exception
+     */
+    private Connection acquireConnection() throws Exception {
+        if (this.concurrent) {
+            DBConnectionDriver driver = this.connectionDriver;
+            if (driver == null) {
+                // Not a monitor: connecting blocks on I/O and would pin a virtual thread
+                this.connectLock.lock();
+                try {
+                    if (this.connectionDriver == null) {
+                        this.connect(null); // reuse last tag
+                    }
+                    driver = this.connectionDriver;
+                } finally {
+                    this.connectLock.unlock();
                 }
-                this.rollback();
-                throw new SQLIntegrityConstraintViolationException(ex);
+            }
+
+            return driver.leaseConnection();
+        }
+
+        if (this.connectionDriver == null) {
+            this.connect(null); // reuse last tag
+        }
+
+        // Lost or returned connection is replaced from the pool by the driver
+        Connection connection = this.connectionDriver.getConnection();
+        if (connection == null) {
+            throw new SQLException(String.format("Can not get connection to \"%s\".", this.tag));
+        }
+
+        return connection;
+    }
+
+
+    /**
+     * Return leased connection to the pool in concurrent mode.
+     *
+     * @param connection
+     */
+    private void releaseConnection(Connection connection) {
+        if (this.concurrent && connection != null) {
+            try {
+                connection.close();
             } catch (SQLException ex) {
-                if (this.debug) {
-                    Logger.getLogger(SQLMapper.class.getName()).log(Level.SEVERE, "SQL error while preparing: {0}", ex.getLocalizedMessage());
-                } else {
-                    Logger.getLogger(SQLMapper.class.getName()).log(Level.SEVERE, "SQL query failed.");
+                LOG.log(Level.WARNING, null, ex);
+            }
+        }
+    }
+
+
+    /**
+     * Get prepared statements cache for the connection. Pooled connections
+     * keep their own cache, otherwise the cache is kept for the current connection.
+     *
+     * @param connection
+     * @return
+     */
+    private StatementCache getStatementCache(Connection connection) {
+        StatementCache cache = StatementCache.of(connection);
+        if (cache == null && this.concurrent) {
+            throw new IllegalStateException("Connection of the concurrent mode is not pooled.");
+        } else if (cache == null) {
+            cache = this.statementCache;
+            if (cache == null || cache.getConnection() != connection) {
+                ConnectionInfo info = this.connectionInfo.get(this.tag);
+                cache = new StatementCache(connection, info != null
+                                                       ? info.getOption(Constants.DB_TAG_STATEMENT_CACHE_SIZE, StatementCache.DEFAULT_SIZE)
+                                                       : StatementCache.DEFAULT_SIZE);
+            }
+        }
+
+        if (!this.concurrent) {
+            this.statementCache = cache;
+        }
+
+        return cache;
+    }
+    
+
+    /**
+     * Call SQL query for every row of parameters in JDBC batches.
+     * All data is committed once at the end.
+     *
+     * @param querypath
+     * @param rows
+     * @param batchSize
+     * @return number of processed rows
+     * @throws SQLException
+     * @throws Exception
+     */
+    public int callBatch(String querypath, Iterable<? extends Map<?, ?>> rows, int batchSize)
+            throws SQLException,
+                   Exception {
+        return this.callBatch(querypath, rows, batchSize, false);
+    }
+
+
+    /**
+     * Call SQL query for every row of parameters in JDBC batches.
+     * The template is compiled once, statements are prepared once and filled
+     * with addBatch(), sending them to the database every batchSize rows.
+     * If a template has {sql:} splice points that render differently for a row,
+     * pending batches are executed and the statement is prepared again.
+     *
+     * @param querypath
+     * @param rows
+     * @param batchSize
+     * @param commitEachBatch Commit after every executed batch instead of once at the end.
+     * @return number of processed rows
+     * @throws SQLException
+     * @throws Exception
+     */
+    public int callBatch(String querypath, Iterable<? extends Map<?, ?>> rows, int batchSize, boolean commitEachBatch)
+            throws SQLException,
+                   Exception {
+        if (batchSize < 1) {
+            throw new Exception("Batch size should be a positive number.");
+        }
+
+        SlowQueryLog slowLog = this.getSlowQueryLog(this.tag);
+        QueryEvent event = new QueryEvent();
+        event.begin();
+        QueryTimer timer = this.metrics.start(querypath, slowLog.isEnabled() || event.isEnabled() || this.trace.isEnabled());
+        SQLTemplate[] queryTemplates;
+        Connection connection;
+        try {
+            queryTemplates = this.getCompiledTemplate(querypath);
+            long mark = timer.lap(QueryMetrics.Phase.TEMPLATE, timer.getStarted());
+            connection = this.acquireConnection();
+            timer.lap(QueryMetrics.Phase.ACQUIRE, mark);
+        } catch (Exception ex) {
+            this.failed(timer, event, ex);
+            throw ex;
+        }
+
+        PreparedStatement[] statements = new PreparedStatement[queryTemplates.length];
+        String[] queries = new String[queryTemplates.length];
+        StatementCache statementCache = this.getStatementCache(connection);
+        int processed = 0;
+        int pending = 0;
+        boolean autoCommit = false;
+
+        Map<?, ?> sample = null;
+        try {
+            // Batches are committed by the mapper, not by the driver
+            autoCommit = connection.getAutoCommit();
+            if (autoCommit) {
+                connection.setAutoCommit(false);
+            }
+
+            for (Map<?, ?> params : rows) {
+                if (params == null) {
+                    params = Collections.emptyMap();
+                }
+                if (sample == null) {
+                    sample = params;
                 }
 
-                this.rollback();
-                throw new SQLException(ex);
-            } catch (Exception ex) {
-                Logger.getLogger(SQLMapper.class.getName()).log(Level.SEVERE, "Unhlandled error while preparing: {0}", ex.getLocalizedMessage());
-                this.rollback();
-                throw new Exception(ex);
+                for (int i = 0; i < queryTemplates.length; i++) {
+                    long rendering = timer.mark();
+                    String query = queryTemplates[i].render(params);
+                    long rendered = timer.mark();
+                    if (statements[i] == null || !query.equals(queries[i])) {
+                        if (statements[i] != null) {
+                            this.executeBatches(statements, timer);
+                            pending = 0;
+                            statementCache.release(statements[i]);
+                            statements[i] = null;
+                        }
+
+                        timer.addStatement(query);
+                        long preparing = timer.mark();
+                        statements[i] = this.prepare(statementCache, query, timer);
+                        timer.lap(QueryMetrics.Phase.PREPARE, preparing);
+                        queries[i] = query;
+                    }
+
+                    long binding = timer.mark();
+                    queryTemplates[i].bind(statements[i], params);
+                    statements[i].addBatch();
+                    timer.record(QueryMetrics.Phase.BIND, rendered - rendering + timer.mark() - binding);
+                }
+
+                processed++;
+                pending++;
+                if (pending == batchSize) {
+                    this.executeBatches(statements, timer);
+                    pending = 0;
+                    if (commitEachBatch) {
+                        this.commit(connection, timer);
+                    }
+                }
             }
 
-            // Panic! Entire chain failed.
-            if (statement == null) {
-                return null;
+            if (pending > 0) {
+                this.executeBatches(statements, timer);
+            }
+
+            this.commit(connection, timer);
+            this.finish(slowLog, timer, event, queryTemplates, sample, processed);
+        } catch (SQLException ex) {
+            LOG.log(Level.SEVERE, "SQL error in batch after {0} rows: {1}",
+                                                            new Object[]{processed, ex.getLocalizedMessage()});
+            this.failed(timer, event, ex);
+            this.rollback(connection, timer);
+            throw ex;
+        } catch (Exception ex) {
+            LOG.log(Level.SEVERE, "Unhandled error in batch: {0}", ex.getLocalizedMessage());
+            this.failed(timer, event, ex);
+            this.rollback(connection, timer);
+            throw new Exception(ex);
+        } finally {
+            for (int i = 0; i < statements.length; i++) {
+                statementCache.release(statements[i]);
+            }
+            if (autoCommit) {
+                try {
+                    connection.setAutoCommit(true);
+                } catch (SQLException ex) {
+                    LOG.log(Level.WARNING, null, ex);
+                }
+            }
+            this.releaseConnection(connection);
+        }
+
+        return processed;
+    }
+
+
+    /**
+     * Stream the result of a SELECT query. Rows are pulled from the database lazily,
+     * fetchSize rows at a time, through a forward-only, read-only cursor. Autocommit is
+     * switched off for the duration of the stream, as PostgreSQL uses cursors only within
+     * a transaction. The statement and the connection are released once the stream is
+     * exhausted or closed, so the stream should be used in try-with-resources.
+     *
+     * @param querypath
+     * @param params
+     * @param fetchSize
+     * @return
+     * @throws SQLException
+     * @throws Exception
+     */
+    public Stream<Row> stream(String querypath, Map<?, ?> params, int fetchSize)
+            throws SQLException,
+                   Exception {
+        return this.stream(querypath, params, fetchSize, Row.MAPPER);
+    }
+
+
+    /**
+     * Stream the result of a SELECT query, mapped by the row mapper.
+     *
+     * @param querypath
+     * @param params
+     * @param fetchSize
+     * @param mapper
+     * @return
+     * @throws SQLException
+     * @throws Exception
+     * @see #stream(java.lang.String, java.util.Map, int)
+     */
+    public <T> Stream<T> stream(String querypath, Map<?, ?> params, int fetchSize, RowMapper<T> mapper)
+            throws SQLException,
+                   Exception {
+        if (params == null) {
+            params = new HashMap<Object, Object>();
+        }
+
+        SlowQueryLog slowLog = this.getSlowQueryLog(this.tag);
+        QueryEvent event = new QueryEvent();
+        event.begin();
+        QueryTimer timer = this.metrics.start(querypath, slowLog.isEnabled() || event.isEnabled() || this.trace.isEnabled());
+        SQLTemplate[] queryTemplates;
+        Connection connection;
+        long mark;
+        try {
+            queryTemplates = this.getCompiledTemplate(querypath);
+            if (queryTemplates.length != 1) {
+                throw new Exception("Only a single SELECT statement can be streamed.");
+            }
+
+            mark = timer.lap(QueryMetrics.Phase.TEMPLATE, timer.getStarted());
+            connection = this.acquireConnection();
+            mark = timer.lap(QueryMetrics.Phase.ACQUIRE, mark);
+        } catch (Exception ex) {
+            this.failed(timer, event, ex);
+            throw ex;
+        }
+
+        StatementCache statementCache = this.getStatementCache(connection);
+        RowSpliterator<T> rows = new RowSpliterator<T>(connection, statementCache);
+        try {
+            if (connection.getAutoCommit()) {
+                connection.setAutoCommit(false);
+                rows.autoCommit = true;
+            }
+
+            String query = queryTemplates[0].render(params);
+            timer.addStatement(query);
+            long rendered = timer.mark();
+            rows.statement = this.prepare(statementCache, query, timer);
+            long prepared = timer.mark();
+            queryTemplates[0].bind(rows.statement, params);
+            rows.statement.setFetchSize(fetchSize);
+            long bound = timer.mark();
+            timer.record(QueryMetrics.Phase.PREPARE, prepared - rendered);
+            timer.record(QueryMetrics.Phase.BIND, rendered - mark + bound - prepared);
+            rows.result = rows.statement.executeQuery();
+            timer.lap(QueryMetrics.Phase.EXECUTE, bound);
+            rows.reader = mapper.resolve(queryTemplates[0].getColumns(rows.result.getMetaData()));
+        } catch (SQLException ex) {
+            LOG.log(Level.SEVERE, "SQL error: {0}", ex.getLocalizedMessage());
+            this.failed(timer, event, ex);
+            rows.close();
+            throw ex;
+        } catch (Exception ex) {
+            LOG.log(Level.SEVERE, "Unhandled error: {0}", ex.getLocalizedMessage());
+            this.failed(timer, event, ex);
+            rows.close();
+            throw new Exception(ex);
+        }
+        this.finish(slowLog, timer, event, queryTemplates, params, -1);
+
+        return StreamSupport.stream(rows, false).onClose(rows);
+    }
+
+
+    /**
+     * Lazy rows of a streamed result.
+     */
+    private class RowSpliterator<T> extends Spliterators.AbstractSpliterator<T> implements Runnable {
+        private final Connection connection;
+        private final StatementCache statementCache;
+        private PreparedStatement statement;
+        private ResultSet result;
+        private RowMapper.Reader<T> reader;
+        private boolean autoCommit;
+        private boolean closed;
+
+        RowSpliterator(Connection connection, StatementCache statementCache) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.connection = connection;
+            this.statementCache = statementCache;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (this.closed) {
+                return false;
             }
 
-            // Execute operations
             try {
-                if (statement.execute()) {
-                    result = statement.getResultSet();
-                } else {
-                    commit = true;
+                if (!this.result.next()) {
+                    this.close();
+                    return false;
                 }
-            } catch (SQLIntegrityConstraintViolationException ex) {
-                Logger.getLogger(SQLMapper.class.getName()).log(Level.SEVERE, "Integrity error: {0}", ex.getLocalizedMessage());
-                this.rollback();
-                throw new SQLIntegrityConstraintViolationException(ex);
+
+                action.accept(this.reader.read(this.result));
             } catch (SQLException ex) {
-                Logger.getLogger(SQLMapper.class.getName()).log(Level.SEVERE, "SQL error: {0}", ex.getLocalizedMessage());
-                this.rollback();
-                throw new SQLException(ex);
-            } catch (Exception ex) {
-                Logger.getLogger(SQLMapper.class.getName()).log(Level.SEVERE, "Unhandled error: {0}", ex.getLocalizedMessage());
-                this.rollback();
-                throw new Exception(ex);
+                this.close();
+                throw new RuntimeException(ex);
             }
+
+            return true;
         }
 
-        // Commit data, if required.
-        if (commit) {
-            this.commit();
+        @Override
+        public void run() {
+            this.close();
         }
 
-        return result;
+        void close() {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+
+            try {
+                if (this.result != null) {
+                    this.result.close();
+                }
+
+                if (this.statement != null) {
+                    this.statement.setFetchSize(0);
+                }
+
+                if (this.autoCommit) {
+                    this.connection.rollback();
+                    this.connection.setAutoCommit(true);
+                }
+            } catch (SQLException ex) {
+                LOG.log(Level.WARNING, null, ex);
+            }
+
+            this.statementCache.release(this.statement);
+            SQLMapper.this.releaseConnection(this.connection);
+        }
     }
-    
+
+
+    /**
+     * Send pending batches of all statements in the template order.
+     *
+     * @param statements
+     * @param timer
+     * @throws SQLException
+     */
+    private void executeBatches(PreparedStatement[] statements, QueryTimer timer) throws SQLException {
+        long mark = timer.mark();
+        for (int i = 0; i < statements.length; i++) {
+            if (statements[i] != null) {
+                statements[i].executeBatch();
+            }
+        }
+        timer.lap(QueryMetrics.Phase.EXECUTE, mark);
+    }
+
 
     /**
      * Commit the transaction.
+     *
+     * @param connection
      */
-    private void commit() {
+    private void commit(Connection connection) {
         try {
-            this.connectionDriver.getConnection().commit();
+            connection.commit();
         } catch (SQLException ex) {
-            Logger.getLogger(SQLMapper.class.getName()).log(Level.SEVERE, null, ex);
+            LOG.log(Level.SEVERE, null, ex);
         }
     }
     
 
     /**
      * Rollback transaction.
+     *
+     * @param connection
      */
-    private void rollback() {
+    private void rollback(Connection connection) {
         try {
-            this.connectionDriver.getConnection().rollback();
+            connection.rollback();
         } catch (SQLException ex1) {
-            Logger.getLogger(SQLMapper.class.getName()).log(Level.SEVERE, null, ex1);
+            LOG.log(Level.SEVERE, null, ex1);
+        }
+    }
+
+
+    private void commit(Connection connection, QueryTimer timer) {
+        TransactionEvent event = new TransactionEvent();
+        event.begin();
+        long mark = timer.mark();
+        this.commit(connection);
+        timer.lap(QueryMetrics.Phase.COMMIT, mark);
+        this.end(event, timer, false);
+    }
+
+
+    private void rollback(Connection connection, QueryTimer timer) {
+        TransactionEvent event = new TransactionEvent();
+        event.begin();
+        long mark = timer.mark();
+        this.rollback(connection);
+        timer.lap(QueryMetrics.Phase.COMMIT, mark);
+        this.end(event, timer, true);
+    }
+
+
+    private void end(TransactionEvent event, QueryTimer timer, boolean rollback) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.querypath = timer.getQuerypath();
+            event.rollback = rollback;
+            event.commit();
+        }
+    }
+
+
+    /**
+     * Prepare statement from the cache of the connection.
+     */
+    private PreparedStatement prepare(StatementCache statementCache, String query, QueryTimer timer) throws SQLException {
+        PrepareEvent event = new PrepareEvent();
+        event.begin();
+        try {
+            return statementCache.prepare(query);
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.querypath = timer.getQuerypath();
+                event.sql = query;
+                event.commit();
+            }
         }
     }
     
@@ -387,95 +1339,207 @@ public class SQLMapper {
      * Close connection to the database and result.
      */
     public void close(ResultSet result) {
+        Lease lease = result != null ? this.leases.remove(result) : null;
+        if (lease != null) {
+            try {
+                result.close();
+            } catch (SQLException ex) {
+                LOG.log(Level.WARNING, null, ex);
+            }
+
+            lease.statementCache.release(lease.statement);
+            this.releaseConnection(lease.connection);
+            return;
+        }
+
         if (result != null) {
             try {
+                Statement statement = result.getStatement();
                 result.clearWarnings();
                 result.close();
+                if (statement instanceof PreparedStatement && this.statementCache != null) {
+                    this.statementCache.release((PreparedStatement) statement);
+                }
             } catch (SQLException ex) {
-                Logger.getLogger(SQLMapper.class.getName()).log(Level.WARNING, null, ex);
+                LOG.log(Level.WARNING, null, ex);
             } catch (Exception ex) {
-                Logger.getLogger(SQLMapper.class.getName()).log(Level.SEVERE, null, ex);                
+                LOG.log(Level.SEVERE, null, ex);                
             } finally {
                 result = null;
             }
         }
 
-        this.close();
+        this.release();
     }
     
     
     /**
-     * Close connection to the database.
+     * Return the current connection to the pool. The next call leases a connection again,
+     * the pool is kept.
      */
-    public void close() {
-        if (this.connectionDriver != null && this.connectionDriver.isConnected()) {
-            this.connectionDriver.close();
+    public void release() {
+        DBConnectionDriver driver = this.connectionDriver;
+        if (driver != null) {
+            driver.close();
         }
+        this.statementCache = null;
     }
 
-    
+
     /**
-     * Read SQL template from the namespace.
-     * 
-     * @param resource
-     * @return 
+     * Close the mapper: connections, pools and their MBeans of all tags are shut down.
+     * The mapper connects again on the next connect().
+     *
+     * @see #release()
      */
-    private String getTemplateFromResource(String resource) {
-        if (resource == null) {
-            return null;
-        } else if (resource.toLowerCase().startsWith("file://")) {
-            System.err.println("Not yet implemented.");
-        } else if (this.resourcesClass != null) {
-            return this.getTemplateFromResource(this.resourcesClass.getResourceAsStream("/" 
-                    + (this.resourceRoot + resource).replaceAll("\\.", "/") + ".tsql"));
-        }
-        
-        return null;
+    public void close() {
+        this.shutdown();
     }
 
 
-    private String getTemplateFromResource(InputStream inputStream) {
-        BufferedReader bufferedReader = null;
-        String line;
-        StringBuilder buff = new StringBuilder();
-
+    /**
+     * Close all connections and pools of all tags and stop the template reload.
+     * Same as close().
+     */
+    public void shutdown() {
+        this.connectLock.lock();
         try {
-            bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
-            while (null != (line = bufferedReader.readLine())) {
-                buff.append(line).append("\n");
+            this.connectionDriver = null;
+            this.leases.clear();
+            this.statementCache = null;
+            for (DBConnectionDriver driver : this.drivers.values()) {
+                driver.shutdown();
             }
-        } catch (Exception ex) {
-            Logger.getLogger(SQLMapper.class.getName()).log(Level.WARNING, null, ex);
+            this.drivers.clear();
+            this.metrics.clear();
+            this.templates.close();
         } finally {
-            try {
-                if (bufferedReader != null) {
-                    bufferedReader.close();
-                }
+            this.connectLock.unlock();
+        }
+    }
 
-                if (inputStream != null) {
-                    inputStream.close();
-                }
-            } catch (IOException ex) {
-                Logger.getLogger(SQLMapper.class.getName()).log(Level.WARNING, null, ex);
-            }
+
+    /**
+     * Get latency metrics of the querypaths. Take snapshot() of them for a programmatic
+     * report; with JMX on, they are also registered as "de.suse.lib.sqlmap:type=Query" MXBeans
+     * until the mapper is closed.
+     *
+     * @return
+     */
+    public QueryMetricsRegistry getQueryMetrics() {
+        return this.metrics;
+    }
+
+
+    /**
+     * Turn per-querypath metrics on or off. Disabled metrics do not read the clock.
+     *
+     * @param enabled
+     * @return
+     */
+    public SQLMapper setMetricsEnabled(boolean enabled) {
+        this.metrics.setEnabled(enabled);
+        return this;
+    }
+
+
+    /**
+     * Get buffer of the recent calls of the mapper. Every call is traced with its querypath,
+     * SQL hash, duration and outcome; in debug mode the rendered SQL is kept as well.
+     *
+     * @return
+     */
+    public TraceBuffer getTrace() {
+        return this.trace;
+    }
+
+
+    /**
+     * Describe recent calls, the oldest first.
+     *
+     * @return
+     */
+    public String dumpTrace() {
+        return this.trace.dump();
+    }
+
+
+    /**
+     * Describe pooled connections of all tags, which are currently leased.
+     * Call results, which are never closed, show up here.
+     *
+     * @return
+     */
+    public String dumpLeases() {
+        StringBuilder dump = new StringBuilder();
+        for (Map.Entry<String, DBConnectionDriver> entry : this.drivers.entrySet()) {
+            dump.append(entry.getKey()).append(": ").append(entry.getValue().dumpLeases());
         }
-        
-        return buff.toString();
+
+        return dump.toString();
     }
 
     
+    /**
+     * Get compiled SQL template. Templates are compiled once per querypath
+     * and kept for the lifetime of the mapper.
+     *
+     * @param querypath
+     * @return
+     * @throws Exception
+     */
+    private SQLTemplate[] getCompiledTemplate(String querypath) throws Exception {
+        return this.templates.get(querypath);
+    }
+
+
+    /**
+     * Add filesystem directory with SQL templates. Directories are searched
+     * before the resources class.
+     *
+     * @param directory
+     * @return
+     * @throws IOException
+     */
+    public SQLMapper addTemplateDirectory(File directory) throws IOException {
+        this.templates.addDirectory(directory.toPath());
+        return this;
+    }
+
+
+    /**
+     * Reload changed templates from the template directories. Meant for development.
+     *
+     * @param reload
+     * @return
+     * @throws IOException
+     */
+    public SQLMapper setTemplateReload(boolean reload) throws IOException {
+        this.templates.setReload(reload);
+        return this;
+    }
+
+
     /**
      * Set resources class.
      * 
      * @param cls
      * @return 
      */
-    public SQLMapper setResourceClass(Class cls) {
-        this.resourcesClass = cls;
+    public SQLMapper setResourceClass(Class<?> cls) {
+        this.templates.setResourceClass(cls);
         return this;
     }
 
 
+    /**
+     * Set callback of the connection. In concurrent mode onConnect() is called once,
+     * when the tag is connected, and onClose() when the mapper is closed; connections,
+     * leased by the calls, do not fire the callback.
+     *
+     * @param callback
+     * @return
+     */
     public SQLMapper setInitCallback(ConnectionCallback callback) {
         this.connectionCallback = callback;
         return this;
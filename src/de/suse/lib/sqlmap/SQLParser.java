@@ -16,15 +16,10 @@
 
 package de.suse.lib.sqlmap;
 
-import java.math.BigDecimal;
 import java.sql.Connection;
-import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.sql.Time;
-import java.sql.Timestamp;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -34,35 +29,52 @@ import java.util.Map;
  * @author Bo Maryniuk
  */
 public class SQLParser {
-    private static final int TYPE_STRING = 0;
-    private static final int TYPE_INT = 1;
-    private static final int TYPE_DATE = 2;
-    private static final int TYPE_TIME = 3;
-    private static final int TYPE_TIMESTAMP = 4;
-    private static final int TYPE_DECIMAL = 5;
-    private static final int TYPE_LONG = 6;
-    private static final int TYPE_SHORT = 7;
-    private static final int TYPE_BOOLEAN = 8;
-    private static final int TYPE_RAW = 9;
+    static final int TYPE_STRING = 0;
+    static final int TYPE_INT = 1;
+    static final int TYPE_DATE = 2;
+    static final int TYPE_TIME = 3;
+    static final int TYPE_TIMESTAMP = 4;
+    static final int TYPE_DECIMAL = 5;
+    static final int TYPE_LONG = 6;
+    static final int TYPE_SHORT = 7;
+    static final int TYPE_BOOLEAN = 8;
+    static final int TYPE_RAW = 9;
+
+    private static final Map<String, Integer> TYPEMAP = new HashMap<String, Integer>();
+    static {
+        SQLParser.TYPEMAP.put("int", SQLParser.TYPE_INT);
+        SQLParser.TYPEMAP.put("short", SQLParser.TYPE_SHORT);
+        SQLParser.TYPEMAP.put("long", SQLParser.TYPE_LONG);
+        SQLParser.TYPEMAP.put("string", SQLParser.TYPE_STRING);
+        SQLParser.TYPEMAP.put("decimal", SQLParser.TYPE_DECIMAL);
+        SQLParser.TYPEMAP.put("date", SQLParser.TYPE_DATE);
+        SQLParser.TYPEMAP.put("time", SQLParser.TYPE_TIME);
+        SQLParser.TYPEMAP.put("timestamp", SQLParser.TYPE_TIMESTAMP);
+        SQLParser.TYPEMAP.put("boolean", SQLParser.TYPE_BOOLEAN);
+        SQLParser.TYPEMAP.put("raw", SQLParser.TYPE_RAW);
+    }
 
     private final String query;
+    private SQLTemplate template;
     private List<Value> values;
     private String preparedStatement;
-    private HashMap<String, Integer> typemap;
-    private SimpleDateFormat dateFormatter;
-    private SimpleDateFormat timeFormatter;
-    private SimpleDateFormat timestampFormatter;
 
 
     public static class Value {
         private String type;
         private String variable;
         private Object value;
+        private int typeId;
 
         public Value(String type, String variable, Object value) {
+            this(type, variable, value, SQLParser.resolveType(type));
+        }
+
+        Value(String type, String variable, Object value, int typeId) {
             this.type = type;
             this.variable = variable;
             this.value = value;
+            this.typeId = typeId;
         }
 
         public String getType() {
@@ -82,69 +94,58 @@ public class SQLParser {
     public SQLParser(String query) {
         this.query = query;
         this.values = new ArrayList<Value>();
+    }
+
 
-        this.typemap = new HashMap<String, Integer>();
-        this.typemap.put("int", SQLParser.TYPE_INT);
-        this.typemap.put("short", SQLParser.TYPE_SHORT);
-        this.typemap.put("long", SQLParser.TYPE_LONG);
-        this.typemap.put("string", SQLParser.TYPE_STRING);
-        this.typemap.put("decimal", SQLParser.TYPE_DECIMAL);
-        this.typemap.put("date", SQLParser.TYPE_DATE);
-        this.typemap.put("time", SQLParser.TYPE_TIME);
-        this.typemap.put("timestamp", SQLParser.TYPE_TIMESTAMP);
-        this.typemap.put("boolean", SQLParser.TYPE_BOOLEAN);
-        this.typemap.put("raw", SQLParser.TYPE_RAW);
-
-        this.dateFormatter = new SimpleDateFormat("yyyy.MM.dd");
-        this.timeFormatter = new SimpleDateFormat("HH:mm:ss");
-        this.timestampFormatter = new SimpleDateFormat("yyyy.MM.dd HH:mm:ss");
+    /**
+     * Create parser on top of already compiled template.
+     *
+     * @param template
+     */
+    public SQLParser(SQLTemplate template) {
+        this(template.getSource());
+        this.template = template;
+    }
+
+
+    /**
+     * Resolve placeholder type name to the type ID. Unknown types are treated as strings.
+     *
+     * @param type
+     * @return
+     */
+    static int resolveType(String type) {
+        Integer id = SQLParser.TYPEMAP.get(type);
+        return id == null ? SQLParser.TYPE_STRING : id;
     }
 
 
     public SQLParser parse(Map<?, ?> params) throws Exception {
         this.preparedStatement = null;
         this.values.clear();
-        List<SQLParser.Value> patterns = new ArrayList<SQLParser.Value>();
-        String[] leftTokens = this.query.split("\\{");
-        for (int i = 0; i < leftTokens.length; i++) {
-            String token = leftTokens[i];
-            if (token.contains("}")) {
-                token = token.split("\\}")[0];
-                if (token.contains(":") && token.indexOf(":") > 0) {
-                    String[] typeAndVariable = token.split(":");
-                    Value value = new Value(typeAndVariable[0], typeAndVariable[1], params.get(typeAndVariable[1]));
-                    if (value.getType().equals("sql")) {
-                        patterns.add(value);
-                    } else {
-                        this.values.add(value);
-                    }
-                } else {
-                    throw new Exception("Illegal syntax: " + token);
-                }
-            }
+        if (this.template == null) {
+            this.template = SQLTemplate.compile(this.query);
         }
 
-        String prepQuery = this.query;
-
-        // Render patterns (SQL injections)
-        for (SQLParser.Value value : patterns) {
-            prepQuery = prepQuery.replace(String.format("{%s:%s}", value.getType(), value.getVariable()),
-                                          value.getValue() != null ? value.getValue().toString().trim() : "");
+        SQLTemplate.Slot[] slots = this.template.slots();
+        for (int i = 0; i < slots.length; i++) {
+            SQLTemplate.Slot slot = slots[i];
+            this.values.add(new Value(slot.getType(), slot.getName(), params.get(slot.getName()), slot.getTypeId()));
         }
 
-        // Render values
-        for (SQLParser.Value value : this.values) {
-            prepQuery = prepQuery.replace(String.format("{%s:%s}", value.getType(), value.getVariable()), "?");
-        }
+        this.preparedStatement = this.template.render(params);
 
-        // At this point query should be already fully prepared, i.e. all variables replaced with a questionmark.
-        if (prepQuery.contains("{") || prepQuery.contains("}")) {
-            throw new Exception("Query was not fully prepared: " + prepQuery);
-        }
+        return this;
+    }
 
-        this.preparedStatement = prepQuery;
 
-        return this;
+    /**
+     * Get rendered SQL statement with "?" markers.
+     *
+     * @return
+     */
+    public String getPreparedStatement() {
+        return this.preparedStatement;
     }
 
 
@@ -161,65 +162,7 @@ public class SQLParser {
         PreparedStatement statement = connection.prepareStatement(this.preparedStatement);
         for (int i = 0; i < values.size(); i++) {
             Value value = values.get(i);
-            Integer type = this.typemap.get(value.getType());
-            switch (type == null ? SQLParser.TYPE_STRING : type) {
-                case SQLParser.TYPE_DATE:
-                    statement.setDate(i + 1, (Date) (value.getValue() instanceof java.util.Date
-                                                     || value.getValue() instanceof java.sql.Date
-                                                     ? value.getValue()
-                                                     : this.dateFormatter.parse((String) value.getValue())));
-                    break;
-
-                case SQLParser.TYPE_TIME:
-                    statement.setTime(i + 1, new Time(((java.util.Date) (value.getValue() instanceof java.util.Date
-                                                                         || value.getValue() instanceof java.sql.Date
-                                                                         || value.getValue() instanceof java.sql.Time
-                                                                         || value.getValue() instanceof java.sql.Timestamp
-                                                                         ? value.getValue()
-                                                                         : this.timeFormatter.parse((String) value.getValue()))).getTime()));
-                    break;
-
-                case SQLParser.TYPE_TIMESTAMP:
-                    statement.setTimestamp(i + 1, new Timestamp(((java.util.Date) (value.getValue() instanceof java.util.Date
-                                                                                   || value.getValue() instanceof java.sql.Date
-                                                                                   ? value.getValue()
-                                                                                   : this.timestampFormatter.parse((String) value.getValue()))).getTime()));
-                    break;
-
-                case SQLParser.TYPE_DECIMAL:
-                    statement.setBigDecimal(i + 1, (BigDecimal) (value.getValue() instanceof BigDecimal
-                                                                 ? value.getValue()
-                                                                 : new BigDecimal((String) value.getValue())));
-                    break;
-
-                case SQLParser.TYPE_INT:
-                    statement.setInt(i + 1, (Integer) ((value.getValue() instanceof Integer)
-                                                       ? value.getValue()
-                                                       : new Integer(value.getValue().toString())));
-                    break;
-
-                case SQLParser.TYPE_SHORT:
-                    statement.setShort(i + 1, (Short) ((value.getValue() instanceof Short)
-                                                       ? value.getValue()
-                                                       : new Short(value.getValue().toString())));
-                    break;
-
-                case SQLParser.TYPE_LONG:
-                    statement.setLong(i + 1, (Long) ((value.getValue() instanceof Long)
-                                                     ? value.getValue()
-                                                     : new Long(value.getValue().toString())));
-                    break;
-
-                case SQLParser.TYPE_BOOLEAN:
-                    statement.setBoolean(i + 1, (Boolean) ((value.getValue() instanceof Boolean)
-                                                           ? value.getValue()
-                                                           : Boolean.valueOf(value.getValue().toString())));
-                    break;
-
-                default: // String
-                    statement.setString(i + 1, (String) value.getValue());
-                    break;
-            }
+            ParameterBinder.forType(value.typeId).bind(statement, i + 1, value.getValue());
         }
 
         return statement;
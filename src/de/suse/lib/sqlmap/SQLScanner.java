@@ -0,0 +1,277 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single-pass scanner of the SQL templates.
+ *
+ * Walks the template once and emits the token stream: plain SQL text, {type:name}
+ * placeholders and statement ends. Quoted strings and identifiers, PostgreSQL
+ * dollar-quoted bodies, line and block comments are copied verbatim, so braces and
+ * semicolons inside of them are not taken as template syntax. Outside of those,
+ * literal braces can be escaped as \{ and \}.
+ *
+ * @author Bo Maryniuk
+ */
+final class SQLScanner {
+    static final int TEXT = 0;
+    static final int PLACEHOLDER = 1;
+    static final int END = 2;
+
+    private final String sql;
+    private final boolean splitStatements;
+    private final List<Token> tokens;
+    private final StringBuilder text;
+    private int statementStart;
+
+
+    /**
+     * Scanner token.
+     */
+    static final class Token {
+        private final int kind;
+        private final String text;
+        private final String type;
+        private final String name;
+
+        private Token(int kind, String text, String type, String name) {
+            this.kind = kind;
+            this.text = text;
+            this.type = type;
+            this.name = name;
+        }
+
+        int getKind() {
+            return kind;
+        }
+
+        /**
+         * SQL text of the TEXT token or raw text of the whole statement for END token.
+         *
+         * @return
+         */
+        String getText() {
+            return text;
+        }
+
+        String getType() {
+            return type;
+        }
+
+        String getName() {
+            return name;
+        }
+    }
+
+
+    /**
+     * Create scanner.
+     *
+     * @param sql
+     * @param splitStatements Emit END token on each ";" outside of quotes and comments.
+     */
+    SQLScanner(String sql, boolean splitStatements) {
+        this.sql = sql;
+        this.splitStatements = splitStatements;
+        this.tokens = new ArrayList<Token>();
+        this.text = new StringBuilder(sql.length());
+    }
+
+
+    /**
+     * Scan the template.
+     *
+     * @return
+     * @throws Exception
+     */
+    List<Token> scan() throws Exception {
+        int length = this.sql.length();
+        int i = 0;
+        while (i < length) {
+            char c = this.sql.charAt(i);
+            char next = i + 1 < length ? this.sql.charAt(i + 1) : 0;
+            switch (c) {
+                case '\'':
+                case '"':
+                case '`':
+                    i = this.copyQuoted(i, c);
+                    break;
+
+                case '-':
+                    i = next == '-' ? this.copyUntil(i, i + 2, "\n", false) : this.copy(i);
+                    break;
+
+                case '/':
+                    i = next == '*' ? this.copyUntil(i, i + 2, "*/", true) : this.copy(i);
+                    break;
+
+                case '$':
+                    i = this.copyDollarQuoted(i);
+                    break;
+
+                case '\\':
+                    if (next == '{' || next == '}') {
+                        this.text.append(next);
+                        i += 2;
+                    } else {
+                        i = this.copy(i);
+                    }
+                    break;
+
+                case '{':
+                    i = this.placeholder(i);
+                    break;
+
+                case '}':
+                    throw new Exception("Query was not fully prepared: " + this.sql);
+
+                case ';':
+                    if (this.splitStatements) {
+                        this.flush();
+                        this.tokens.add(new Token(SQLScanner.END, this.sql.substring(this.statementStart, i), null, null));
+                        this.statementStart = i + 1;
+                        i++;
+                    } else {
+                        i = this.copy(i);
+                    }
+                    break;
+
+                default:
+                    i = this.copy(i);
+                    break;
+            }
+        }
+
+        this.flush();
+        if (this.splitStatements) {
+            this.tokens.add(new Token(SQLScanner.END, this.sql.substring(this.statementStart), null, null));
+        }
+
+        return this.tokens;
+    }
+
+
+    private int copy(int offset) {
+        this.text.append(this.sql.charAt(offset));
+        return offset + 1;
+    }
+
+
+    /**
+     * Copy everything from the offset until the terminator (inclusive).
+     */
+    private int copyUntil(int offset, int from, String terminator, boolean required) throws Exception {
+        int end = this.sql.indexOf(terminator, from);
+        if (end < 0) {
+            if (required) {
+                throw new Exception("Illegal syntax: unterminated comment at " + this.sql.substring(offset));
+            }
+            end = this.sql.length();
+        } else {
+            end += terminator.length();
+        }
+
+        this.text.append(this.sql, offset, end);
+        return end;
+    }
+
+
+    /**
+     * Copy quoted string or identifier. Doubled quotes are handled as two adjacent quoted parts.
+     */
+    private int copyQuoted(int offset, char quote) throws Exception {
+        int end = this.sql.indexOf(quote, offset + 1);
+        if (end < 0) {
+            throw new Exception("Illegal syntax: unterminated quoted text at " + this.sql.substring(offset));
+        }
+
+        this.text.append(this.sql, offset, end + 1);
+        return end + 1;
+    }
+
+
+    /**
+     * Copy PostgreSQL dollar-quoted text, e.g. $$...$$ or $body$...$body$.
+     * Positional parameters like $1 are copied as plain text.
+     */
+    private int copyDollarQuoted(int offset) throws Exception {
+        int i = offset + 1;
+        while (i < this.sql.length()) {
+            char c = this.sql.charAt(i);
+            if (c == '$') {
+                break;
+            } else if (!(Character.isLetter(c) || c == '_' || (i > offset + 1 && Character.isDigit(c)))) {
+                return this.copy(offset);
+            }
+            i++;
+        }
+
+        if (i >= this.sql.length()) {
+            return this.copy(offset);
+        }
+
+        String tag = this.sql.substring(offset, i + 1);
+        int end = this.sql.indexOf(tag, i + 1);
+        if (end < 0) {
+            throw new Exception("Illegal syntax: unterminated dollar-quoted text at " + this.sql.substring(offset));
+        }
+
+        end += tag.length();
+        this.text.append(this.sql, offset, end);
+        return end;
+    }
+
+
+    /**
+     * Parse {type:name} placeholder.
+     */
+    private int placeholder(int offset) throws Exception {
+        int end = offset + 1;
+        while (end < this.sql.length() && this.sql.charAt(end) != '}') {
+            if (this.sql.charAt(end) == '{') {
+                throw new Exception("Illegal syntax: " + this.sql.substring(offset + 1, end));
+            }
+            end++;
+        }
+
+        if (end >= this.sql.length()) {
+            throw new Exception("Illegal syntax: " + this.sql.substring(offset + 1));
+        }
+
+        String token = this.sql.substring(offset + 1, end);
+        int separator = token.indexOf(':');
+        if (separator <= 0 || separator == token.length() - 1) {
+            throw new Exception("Illegal syntax: " + token);
+        }
+
+        this.flush();
+        this.tokens.add(new Token(SQLScanner.PLACEHOLDER, null, token.substring(0, separator), token.substring(separator + 1)));
+
+        return end + 1;
+    }
+
+
+    private void flush() {
+        if (this.text.length() > 0) {
+            this.tokens.add(new Token(SQLScanner.TEXT, this.text.toString(), null, null));
+            this.text.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compiled SQL statement template.
+ *
+ * The template is parsed only once: value placeholders are turned into "?" markers,
+ * parameter slots are kept in the order of their appearance and {sql:name} placeholders
+ * are kept as splice points. Instances are immutable and can be shared between threads,
+ * so the per-call work is only rendering splices and binding values. The column index
+ * of the last result shape is cached as well.
+ *
+ * @author Bo Maryniuk
+ */
+public final class SQLTemplate {
+    private static final String TYPE_SQL = "sql";
+
+    private final String source;
+    private final String[] fragments;
+    private final String[] splices;
+    private final Slot[] slots;
+    private final List<Slot> slotList;
+    private volatile ColumnIndex columns;
+
+
+    /**
+     * Parameter slot of the compiled template.
+     */
+    public static final class Slot {
+        private final String type;
+        private final String name;
+        private final int typeId;
+        private final ParameterBinder binder;
+
+        Slot(String type, String name) {
+            this.type = type;
+            this.name = name;
+            this.typeId = SQLParser.resolveType(type);
+            this.binder = ParameterBinder.forType(this.typeId);
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        int getTypeId() {
+            return typeId;
+        }
+
+        ParameterBinder getBinder() {
+            return binder;
+        }
+    }
+
+
+    private SQLTemplate(String source, List<String> fragments, List<String> splices, List<Slot> slots) {
+        this.source = source;
+        this.fragments = fragments.toArray(new String[fragments.size()]);
+        this.splices = splices.toArray(new String[splices.size()]);
+        this.slots = slots.toArray(new Slot[slots.size()]);
+        this.slotList = Collections.unmodifiableList(slots);
+    }
+
+
+    /**
+     * Compile single SQL statement.
+     *
+     * @param query
+     * @return
+     * @throws Exception
+     */
+    public static SQLTemplate compile(String query) throws Exception {
+        List<SQLScanner.Token> tokens = new SQLScanner(query, false).scan();
+        return SQLTemplate.build(query, tokens, 0, tokens.size());
+    }
+
+
+    /**
+     * Compile the whole .tsql template, which may contain several statements separated by ";".
+     *
+     * @param template
+     * @return
+     * @throws Exception
+     */
+    public static SQLTemplate[] compileStatements(String template) throws Exception {
+        List<SQLScanner.Token> tokens = new SQLScanner(template, true).scan();
+        List<String> queryTemplates = new ArrayList<String>();
+        for (int i = 0; i < tokens.size(); i++) {
+            if (tokens.get(i).getKind() == SQLScanner.END) {
+                queryTemplates.add(tokens.get(i).getText());
+            }
+        }
+
+        // Check template conventions
+        if (queryTemplates.size() > 1) {
+            int selective = 0;
+            for (int i = 0; i < queryTemplates.size(); i++) {
+                String verb = SQLTemplate.getVerb(queryTemplates.get(i));
+                if (verb.equals("select") || verb.equals("with")) {
+                    selective++;
+                    if (selective > 1) {
+                        throw new Exception("There can be only one SELECT statement in a multi-statement query.");
+                    }
+                }
+            }
+        }
+
+        List<SQLTemplate> statements = new ArrayList<SQLTemplate>();
+        int start = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            SQLScanner.Token token = tokens.get(i);
+            if (token.getKind() == SQLScanner.END) {
+                String query = token.getText().trim();
+                if (!query.isEmpty()) {
+                    statements.add(SQLTemplate.build(query, tokens, start, i));
+                }
+                start = i + 1;
+            }
+        }
+
+        if (statements.isEmpty()) {
+            throw new Exception("None of SQL statements has been found in the given SQL template.");
+        }
+
+        return statements.toArray(new SQLTemplate[statements.size()]);
+    }
+
+
+    /**
+     * Get the first keyword of the statement in lower case, skipping leading whitespace,
+     * comments and opening parentheses.
+     *
+     * @param sql
+     * @return keyword or an empty string.
+     */
+    static String getVerb(String sql) {
+        int offset = 0;
+        while (offset < sql.length()) {
+            char c = sql.charAt(offset);
+            if (Character.isWhitespace(c) || c == '(') {
+                offset++;
+            } else if (sql.startsWith("--", offset)) {
+                int end = sql.indexOf('\n', offset);
+                offset = end < 0 ? sql.length() : end + 1;
+            } else if (sql.startsWith("/*", offset)) {
+                int end = sql.indexOf("*/", offset + 2);
+                offset = end < 0 ? sql.length() : end + 2;
+            } else {
+                break;
+            }
+        }
+
+        int end = offset;
+        while (end < sql.length() && Character.isLetter(sql.charAt(end))) {
+            end++;
+        }
+
+        return sql.substring(offset, end).toLowerCase(Locale.ENGLISH);
+    }
+
+
+    /**
+     * Build template out of the scanned tokens of one statement.
+     */
+    private static SQLTemplate build(String source, List<SQLScanner.Token> tokens, int from, int to) {
+        List<String> fragments = new ArrayList<String>();
+        List<String> splices = new ArrayList<String>();
+        List<Slot> slots = new ArrayList<Slot>();
+        StringBuilder buff = new StringBuilder(source.length());
+
+        for (int i = from; i < to; i++) {
+            SQLScanner.Token token = tokens.get(i);
+            if (token.getKind() == SQLScanner.TEXT) {
+                buff.append(token.getText());
+            } else if (token.getType().equals(SQLTemplate.TYPE_SQL)) {
+                fragments.add(buff.toString());
+                splices.add(token.getName());
+                buff.setLength(0);
+            } else {
+                buff.append('?');
+                slots.add(new Slot(token.getType(), token.getName()));
+            }
+        }
+        fragments.add(buff.toString());
+
+        // Statement is trimmed as a whole
+        fragments.set(0, SQLTemplate.trimLeading(fragments.get(0)));
+        fragments.set(fragments.size() - 1, SQLTemplate.trimTrailing(fragments.get(fragments.size() - 1)));
+
+        return new SQLTemplate(source, fragments, splices, slots);
+    }
+
+
+    private static String trimLeading(String text) {
+        int i = 0;
+        while (i < text.length() && text.charAt(i) <= ' ') {
+            i++;
+        }
+
+        return text.substring(i);
+    }
+
+
+    private static String trimTrailing(String text) {
+        int i = text.length();
+        while (i > 0 && text.charAt(i - 1) <= ' ') {
+            i--;
+        }
+
+        return text.substring(0, i);
+    }
+
+
+    /**
+     * Render final SQL text with "?" markers. If the template has no splice points,
+     * the precompiled text is returned as is.
+     *
+     * @param params
+     * @return
+     */
+    public String render(Map<?, ?> params) {
+        if (this.splices.length == 0) {
+            return this.fragments[0];
+        }
+
+        int length = 0;
+        for (int i = 0; i < this.fragments.length; i++) {
+            length += this.fragments[i].length();
+        }
+
+        StringBuilder buff = new StringBuilder(length + 16 * this.splices.length);
+        for (int i = 0; i < this.splices.length; i++) {
+            Object value = params.get(this.splices[i]);
+            buff.append(this.fragments[i]).append(value != null ? value.toString().trim() : "");
+        }
+
+        return buff.append(this.fragments[this.fragments.length - 1]).toString();
+    }
+
+
+    /**
+     * Bind parameters to the statement, prepared from the rendered SQL text.
+     *
+     * @param statement
+     * @param params
+     * @throws SQLException
+     * @throws ParseException
+     */
+    public void bind(PreparedStatement statement, Map<?, ?> params) throws SQLException, ParseException {
+        for (int i = 0; i < this.slots.length; i++) {
+            Slot slot = this.slots[i];
+            slot.binder.bind(statement, i + 1, params.get(slot.name));
+        }
+    }
+
+
+    /**
+     * Check if the template has {sql:name} splice points, i.e. the final SQL text
+     * depends on the parameters.
+     *
+     * @return
+     */
+    public boolean hasSplices() {
+        return this.splices.length > 0;
+    }
+
+
+    /**
+     * Get parameter slots in the binding order.
+     *
+     * @return
+     */
+    public List<Slot> getSlots() {
+        return this.slotList;
+    }
+
+
+    Slot[] slots() {
+        return this.slots;
+    }
+
+
+    /**
+     * Get column index of the result, produced by this statement.
+     * The index is resolved once and reused for as long as the result shape stays the same.
+     *
+     * @param meta
+     * @return
+     * @throws SQLException
+     */
+    public ColumnIndex getColumns(ResultSetMetaData meta) throws SQLException {
+        ColumnIndex index = this.columns;
+        if (index == null || !index.matches(meta)) {
+            index = new ColumnIndex(meta);
+            this.columns = index;
+        }
+
+        return index;
+    }
+
+
+    /**
+     * Get the original template text.
+     *
+     * @return
+     */
+    public String getSource() {
+        return this.source;
+    }
+
+
+    @Override
+    public String toString() {
+        return this.source;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap;
+
+import de.suse.lib.sqlmap.drivers.DBConnectionDriver;
+import de.suse.lib.sqlmap.metrics.QueryTimer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Log of the calls, which took longer than the threshold of the tag.
+ *
+ * Entries have the querypath, rendered SQL, types of the bound parameters (not their values)
+ * and the time of every phase. If asked, the plan of the statements is captured with EXPLAIN
+ * on a separate pooled connection in the background, so the calling thread is not delayed.
+ * Entries are rate limited: a burst of up to "rate" entries, then "rate" entries per minute;
+ * the rest is only counted and reported with the next entry.
+ *
+ * @author Bo Maryniuk
+ */
+class SlowQueryLog {
+    static final int DEFAULT_RATE = 10;
+    static final SlowQueryLog DISABLED = new SlowQueryLog(null, 0, false, 0);
+
+    private final String tag;
+    private final long threshold;
+    private final boolean explain;
+    private final long interval;
+    private final long tolerance;
+    private final AtomicLong allowedAt;
+    private final AtomicLong suppressed;
+    private final AtomicLong sequence;
+
+
+    /**
+     * Create slow query log.
+     *
+     * @param tag
+     * @param threshold Milliseconds, zero disables the log.
+     * @param explain Capture plans of the slow statements.
+     * @param rate Entries per minute, zero does not limit.
+     */
+    SlowQueryLog(String tag, long threshold, boolean explain, int rate) {
+        this.tag = tag;
+        this.threshold = TimeUnit.MILLISECONDS.toNanos(Math.max(0, threshold));
+        this.explain = explain;
+        this.interval = rate > 0 ? TimeUnit.MINUTES.toNanos(1) / rate : 0;
+        this.tolerance = rate > 0 ? this.interval * (rate - 1) : 0;
+        this.allowedAt = new AtomicLong(System.nanoTime());
+        this.suppressed = new AtomicLong();
+        this.sequence = new AtomicLong();
+    }
+
+
+    boolean isEnabled() {
+        return this.threshold > 0;
+    }
+
+
+    boolean isSlow(long elapsed) {
+        return this.threshold > 0 && elapsed >= this.threshold;
+    }
+
+
+    String getTag() {
+        return this.tag;
+    }
+
+
+    /**
+     * Take a permit of the rate limit. Lock-free, as it is taken on the calling thread.
+     */
+    private boolean acquire() {
+        if (this.interval == 0) {
+            return true;
+        }
+
+        long now = System.nanoTime();
+        while (true) {
+            long at = this.allowedAt.get();
+            if (at - now > this.tolerance) {
+                return false;
+            }
+
+            if (this.allowedAt.compareAndSet(at, (at - now < 0 ? now : at) + this.interval)) {
+                return true;
+            }
+        }
+    }
+
+
+    /**
+     * Log slow call, unless the rate limit is exceeded.
+     *
+     * @param timer Finished timer of the call.
+     * @param templates
+     * @param params
+     * @param driver Driver of the tag to capture the plans, if enabled.
+     * @param executor Executor to capture the plans on.
+     */
+    void log(QueryTimer timer, final SQLTemplate[] templates, final Map<?, ?> params, final DBConnectionDriver driver, Executor executor) {
+        if (!this.acquire()) {
+            this.suppressed.incrementAndGet();
+            return;
+        }
+
+        final long id = this.sequence.incrementAndGet();
+        final String[] queries = new String[templates.length];
+        StringBuilder entry = new StringBuilder();
+        entry.append(String.format(Locale.ENGLISH, "Slow query #%d on \"%s\": %s took %.3fms (%s).",
+                                   id, this.tag, timer.getQuerypath(), timer.getElapsed() / 1e6, timer));
+        long skipped = this.suppressed.getAndSet(0);
+        if (skipped > 0) {
+            entry.append(String.format(" %d more slow queries were not logged.", skipped));
+        }
+
+        for (int i = 0; i < templates.length; i++) {
+            queries[i] = SlowQueryLog.render(templates[i], params);
+            entry.append("\n  SQL: ").append(queries[i]);
+            if (!templates[i].getSlots().isEmpty()) {
+                entry.append("\n  Parameters: ").append(SlowQueryLog.describe(templates[i], params));
+            }
+        }
+        Logger.getLogger(SlowQueryLog.class.getName()).log(Level.WARNING, entry.toString());
+
+        if (this.explain && driver != null && params != null) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        SlowQueryLog.this.explain(id, templates, queries, params, driver);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                Logger.getLogger(SlowQueryLog.class.getName()).log(Level.FINE, String.format("Plan of slow query #%d is not captured.", id));
+            }
+        }
+    }
+
+
+    private static String render(SQLTemplate template, Map<?, ?> params) {
+        try {
+            return params != null ? template.render(params) : template.getSource();
+        } catch (RuntimeException ex) {
+            return template.getSource();
+        }
+    }
+
+
+    /**
+     * Describe bound parameters as "name:type=class", without the values.
+     */
+    private static String describe(SQLTemplate template, Map<?, ?> params) {
+        StringBuilder buff = new StringBuilder();
+        for (SQLTemplate.Slot slot : template.getSlots()) {
+            Object value = params != null ? params.get(slot.getName()) : null;
+            if (buff.length() > 0) {
+                buff.append(", ");
+            }
+            buff.append(slot.getName()).append(':').append(slot.getType()).append('=')
+                .append(value != null ? value.getClass().getName() : "null");
+        }
+
+        return buff.toString();
+    }
+
+
+    /**
+     * Capture plans of the statements, which have one.
+     */
+    private void explain(long id, SQLTemplate[] templates, String[] queries, Map<?, ?> params, DBConnectionDriver driver) {
+        StringBuilder plans = new StringBuilder();
+        Connection connection = null;
+        try {
+            connection = driver.leaseConnection();
+            for (int i = 0; i < templates.length; i++) {
+                String verb = SQLTemplate.getVerb(queries[i]);
+                String statement = driver.getExplainStatement(queries[i]);
+                if (statement == null || !(verb.equals("select") || verb.equals("with") || verb.equals("insert")
+                                           || verb.equals("update") || verb.equals("delete"))) {
+                    continue;
+                }
+
+                plans.append("\n  ").append(queries[i]);
+                PreparedStatement explain = connection.prepareStatement(statement);
+                try {
+                    templates[i].bind(explain, params);
+                    ResultSet result = explain.executeQuery();
+                    int columns = result.getMetaData().getColumnCount();
+                    while (result.next()) {
+                        plans.append("\n    ");
+                        for (int column = 1; column <= columns; column++) {
+                            plans.append(column > 1 ? " | " : "").append(result.getString(column));
+                        }
+                    }
+                    result.close();
+                } finally {
+                    explain.close();
+                }
+            }
+
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+            }
+        } catch (SQLException ex) {
+            Logger.getLogger(SlowQueryLog.class.getName()).log(Level.INFO, String.format("Can not capture plan of slow query #%d: %s",
+                                                                                          id, ex.getLocalizedMessage()));
+            return;
+        } catch (ParseException ex) {
+            Logger.getLogger(SlowQueryLog.class.getName()).log(Level.INFO, String.format("Can not capture plan of slow query #%d: %s",
+                                                                                          id, ex.getLocalizedMessage()));
+            return;
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException ex) {
+                    Logger.getLogger(SlowQueryLog.class.getName()).log(Level.WARNING, null, ex);
+                }
+            }
+        }
+
+        if (plans.length() > 0) {
+            Logger.getLogger(SlowQueryLog.class.getName()).log(Level.WARNING, String.format("Plan of slow query #%d:%s", id, plans));
+        }
+    }
+}
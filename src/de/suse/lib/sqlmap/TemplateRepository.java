@@ -0,0 +1,402 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Repository of SQL templates.
+ *
+ * Templates are looked up by querypath as "file://" paths, in the template directories
+ * and in the classpath of the resources class, in this order. Each template is read
+ * in one bulk read and compiled once, then served from the cache. In reload mode
+ * the directories are watched and changed templates are dropped from the cache,
+ * so they are read again on the next call.
+ *
+ * @author Bo Maryniuk
+ */
+public class TemplateRepository {
+    private static final String FILE_PROTO = "file://";
+    private static final String EXTENSION = ".tsql";
+
+    private final Map<String, Entry> templates;
+    private final List<Path> directories;
+    private final AtomicLong version;
+    private Class<?> resourcesClass;
+    private String resourceRoot;
+    private WatchService watchService;
+    private Thread watcher;
+
+
+    /**
+     * Cached template.
+     */
+    private static class Entry {
+        private final String text;
+        private final SQLTemplate[] compiled;
+        private final Path path;
+
+        Entry(String text, SQLTemplate[] compiled, Path path) {
+            this.text = text;
+            this.compiled = compiled;
+            this.path = path;
+        }
+    }
+
+
+    public TemplateRepository() {
+        this.templates = new ConcurrentHashMap<String, Entry>();
+        this.directories = new CopyOnWriteArrayList<Path>();
+        this.version = new AtomicLong();
+        this.resourceRoot = "";
+    }
+
+
+    /**
+     * Set class, which resources are used to find the templates in the classpath.
+     *
+     * @param cls
+     */
+    public void setResourceClass(Class<?> cls) {
+        this.resourcesClass = cls;
+        this.clear();
+    }
+
+
+    /**
+     * Set resource root namespace, e.g. "com.example.queries".
+     *
+     * @param resourceRoot
+     */
+    public void setResourceRoot(String resourceRoot) {
+        if (resourceRoot == null) {
+            resourceRoot = "";
+        } else {
+            resourceRoot = resourceRoot.trim();
+            if (!resourceRoot.isEmpty() && !resourceRoot.endsWith(".")) {
+                resourceRoot += '.';
+            }
+        }
+
+        this.resourceRoot = resourceRoot;
+        this.clear();
+    }
+
+
+    /**
+     * Add filesystem directory with templates. Directories are searched before the classpath.
+     *
+     * @param directory
+     * @throws IOException
+     */
+    public void addDirectory(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            throw new IOException("Not a directory: " + directory);
+        }
+
+        directory = directory.toAbsolutePath().normalize();
+        this.directories.add(directory);
+        this.clear();
+
+        synchronized (this) {
+            if (this.watchService != null) {
+                this.register(directory);
+            }
+        }
+    }
+
+
+    /**
+     * Get compiled template.
+     *
+     * @param querypath
+     * @return
+     * @throws Exception
+     */
+    public SQLTemplate[] get(String querypath) throws Exception {
+        return this.getEntry(querypath).compiled;
+    }
+
+
+    /**
+     * Get template text.
+     *
+     * @param querypath
+     * @return
+     * @throws Exception
+     */
+    public String getText(String querypath) throws Exception {
+        return this.getEntry(querypath).text;
+    }
+
+
+    private Entry getEntry(String querypath) throws Exception {
+        if (querypath == null) {
+            throw new Exception("SQL template is not specified.");
+        }
+
+        Entry entry = this.templates.get(querypath);
+        if (entry == null) {
+            // Template, invalidated while it was loaded, is served once but not cached
+            long loaded = this.version.get();
+            entry = this.load(querypath);
+            if (entry == null) {
+                throw new Exception(String.format("SQL template \"%s\" has not been found.", querypath));
+            }
+            this.templates.put(querypath, entry);
+            if (this.version.get() != loaded) {
+                this.templates.remove(querypath, entry);
+            }
+        }
+
+        return entry;
+    }
+
+
+    /**
+     * Find and compile the template.
+     */
+    private Entry load(String querypath) throws Exception {
+        if (querypath.toLowerCase().startsWith(TemplateRepository.FILE_PROTO)) {
+            Path path = this.getFilePath(querypath);
+            synchronized (this) {
+                if (this.watchService != null && path.getParent() != null) {
+                    this.register(path.getParent());
+                }
+            }
+
+            Entry entry = this.load(path);
+            if (entry == null) {
+                throw new Exception(String.format("SQL template \"%s\" has not been found at %s.", querypath, path));
+            }
+
+            return entry;
+        }
+
+        String resource = (this.resourceRoot + querypath).replace('.', '/') + TemplateRepository.EXTENSION;
+        for (Path directory : this.directories) {
+            Path path = directory.resolve(resource);
+            if (Files.isRegularFile(path)) {
+                return this.load(path);
+            }
+        }
+
+        if (this.resourcesClass != null) {
+            InputStream inputStream = this.resourcesClass.getResourceAsStream("/" + resource);
+            if (inputStream != null) {
+                String text;
+                try {
+                    text = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+                } finally {
+                    inputStream.close();
+                }
+
+                return new Entry(text, SQLTemplate.compileStatements(text), null);
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Get path of a "file://" querypath: "file:///abs/path" is absolute, "file://rel/path"
+     * is relative to the working directory. The extension is appended, unless given.
+     */
+    private Path getFilePath(String querypath) throws Exception {
+        String file = querypath.substring(TemplateRepository.FILE_PROTO.length());
+        if (file.isEmpty()) {
+            throw new Exception(String.format("SQL template \"%s\" has no file path.", querypath));
+        }
+
+        if (!file.endsWith(TemplateRepository.EXTENSION)) {
+            file += TemplateRepository.EXTENSION;
+        }
+
+        try {
+            return Paths.get(file).toAbsolutePath().normalize();
+        } catch (InvalidPathException ex) {
+            throw new Exception(String.format("SQL template \"%s\" has an invalid file path: %s", querypath, ex.getMessage()));
+        }
+    }
+
+
+    private Entry load(Path path) throws Exception {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+
+        path = path.toAbsolutePath().normalize();
+        String text = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+
+        return new Entry(text, SQLTemplate.compileStatements(text), path);
+    }
+
+
+    /**
+     * Drop all cached templates.
+     */
+    public void clear() {
+        this.version.incrementAndGet();
+        this.templates.clear();
+    }
+
+
+    /**
+     * Watch template directories and reload changed templates.
+     * Meant for development.
+     *
+     * @param reload
+     * @throws IOException
+     */
+    public synchronized void setReload(boolean reload) throws IOException {
+        if (reload && this.watchService == null) {
+            this.watchService = FileSystems.getDefault().newWatchService();
+            for (Path directory : this.directories) {
+                this.register(directory);
+            }
+
+            final WatchService service = this.watchService;
+            this.watcher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    TemplateRepository.this.watch(service);
+                }
+            }, "tiny-sqlmap-template-watcher");
+            this.watcher.setDaemon(true);
+            this.watcher.start();
+        } else if (!reload && this.watchService != null) {
+            this.watchService.close();
+            this.watchService = null;
+            this.watcher = null;
+        }
+    }
+
+
+    /**
+     * Stop watching the template directories and drop all cached templates.
+     */
+    public synchronized void close() {
+        try {
+            this.setReload(false);
+        } catch (IOException ex) {
+            Logger.getLogger(TemplateRepository.class.getName()).log(Level.WARNING, null, ex);
+        }
+
+        this.clear();
+    }
+
+
+    public synchronized boolean isReload() {
+        return this.watchService != null;
+    }
+
+
+    /**
+     * Register directory with all subdirectories in the watch service.
+     */
+    private void register(Path directory) throws IOException {
+        final WatchService service = this.watchService;
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                             StandardWatchEventKinds.ENTRY_MODIFY,
+                             StandardWatchEventKinds.ENTRY_DELETE);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+
+    private void watch(WatchService service) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException ex) {
+                return;
+            } catch (ClosedWatchServiceException ex) {
+                return;
+            }
+
+            Path directory = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    this.clear();
+                    continue;
+                }
+
+                Path path = directory.resolve((Path) event.context()).toAbsolutePath().normalize();
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                    try {
+                        synchronized (this) {
+                            if (this.watchService == service) {
+                                this.register(path);
+                            }
+                        }
+                    } catch (IOException ex) {
+                        Logger.getLogger(TemplateRepository.class.getName()).log(Level.WARNING, null, ex);
+                    }
+                }
+
+                this.invalidate(path);
+            }
+
+            key.reset();
+        }
+    }
+
+
+    /**
+     * Drop cached templates coming from the path or under it.
+     * A newly created file can shadow a classpath template, so those are dropped as well.
+     */
+    private void invalidate(Path path) {
+        this.version.incrementAndGet();
+        Iterator<Map.Entry<String, Entry>> entries = this.templates.entrySet().iterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next().getValue();
+            if (entry.path == null || entry.path.startsWith(path)) {
+                entries.remove();
+            }
+        }
+    }
+}
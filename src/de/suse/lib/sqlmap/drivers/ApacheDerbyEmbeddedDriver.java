@@ -19,6 +19,7 @@ package de.suse.lib.sqlmap.drivers;
 import de.suse.lib.sqlmap.ConnectionInfo;
 import java.io.File;
 import java.net.URISyntaxException;
+import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.HashMap;
@@ -34,7 +35,7 @@ import java.util.logging.Logger;
 public class ApacheDerbyEmbeddedDriver extends GenericDriver {
     private final static String PROTO = "jdbc:derby://";
     private final static String DRIVER = "org.apache.derby.jdbc.EmbeddedDriver";
-    private ConnectionInfo info;
+    private String databaseUrl;
 
 
     public ApacheDerbyEmbeddedDriver(ConnectionInfo info)
@@ -42,8 +43,7 @@ public class ApacheDerbyEmbeddedDriver extends GenericDriver {
                    ClassNotFoundException,
                    SQLException,
                    Exception {
-        super(info.getUrl());
-        this.info = info;
+        super(info);
         Class.forName(ApacheDerbyEmbeddedDriver.DRIVER);
     }
 
@@ -110,10 +110,8 @@ public class ApacheDerbyEmbeddedDriver extends GenericDriver {
                 }
             }
 
-            this.connection = DriverManager.getConnection("jdbc:derby:" + databaseUrlTokens[0] + this.renderQuery(queryParams));
-            if (this.callback != null) {
-                this.callback.onConnect();
-            }
+            this.databaseUrl = "jdbc:derby:" + databaseUrlTokens[0] + this.renderQuery(queryParams);
+            this.attach();
         } catch (SQLException ex) {
             Logger.getLogger(ApacheDerbyEmbeddedDriver.class.getName()).log(Level.SEVERE, null, ex);
             throw new Exception("Could not connect to the database.");
@@ -123,6 +121,16 @@ public class ApacheDerbyEmbeddedDriver extends GenericDriver {
     }
 
 
+    @Override
+    protected Connection openConnection() throws SQLException {
+        if (this.databaseUrl == null) {
+            throw new SQLException("Database is not yet connected.");
+        }
+
+        return DriverManager.getConnection(this.databaseUrl);
+    }
+
+
     /**
      * Parse and patch query.
      *
@@ -20,6 +20,7 @@ package de.suse.lib.sqlmap.drivers;
 import de.suse.lib.sqlmap.ConnectionCallback;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
 
 /**
  * @author Bo Maryniuk
@@ -31,7 +32,6 @@ public interface DBConnectionDriver {
      * @param password 
      * @return 
      * @throws Exception 
-     * @deprecated
      */
     public DBConnectionDriver connect(String user, String password) throws Exception;
 
@@ -51,12 +51,56 @@ public interface DBConnectionDriver {
     public boolean isConnected();
 
     public void close();
+
+    /**
+     * Close the connection and all pooled connections of the driver.
+     */
+    public void shutdown();
     
     public Connection getConnection();
 
+    /**
+     * Lease a pooled connection for the exclusive use of the caller.
+     * The connection is returned to the pool by closing it.
+     *
+     * @return
+     * @throws SQLException
+     */
+    public Connection leaseConnection() throws SQLException;
+
     public void setConnectionCallback(ConnectionCallback callback);
 
     public String getDatabaseName();
     
     public DatabaseMetaData getDatabaseMetaData();
+
+    /**
+     * Get database product name. Fetched once per driver.
+     *
+     * @return
+     */
+    public String getDatabaseProductName();
+
+    /**
+     * Get database URL, as reported by the JDBC driver. Fetched once per driver.
+     *
+     * @return
+     */
+    public String getDatabaseUrl();
+
+    /**
+     * Describe connections, currently leased from the pool, to find leaks.
+     *
+     * @return
+     */
+    public String dumpLeases();
+
+    /**
+     * Get statement, which shows the execution plan of the SQL statement
+     * with the same parameters, in the syntax of the database.
+     *
+     * @param sql
+     * @return statement or null, if the database has no such statement.
+     */
+    public String getExplainStatement(String sql);
 }
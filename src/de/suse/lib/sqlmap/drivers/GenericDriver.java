@@ -18,15 +18,25 @@
 package de.suse.lib.sqlmap.drivers;
 
 import de.suse.lib.sqlmap.ConnectionCallback;
+import de.suse.lib.sqlmap.ConnectionInfo;
+import de.suse.lib.sqlmap.Constants;
+import de.suse.lib.sqlmap.pool.ConnectionFactory;
+import de.suse.lib.sqlmap.pool.EmbeddedConnectionPool;
+import de.suse.lib.sqlmap.pool.StatementCache;
 import java.net.URISyntaxException;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.SQLException;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Base driver operator.
+ *
+ * Drivers only know how to open a physical connection (openConnection()). All connections,
+ * including the current connection of the driver, are leased from the same pool, so
+ * connections are reused regardless of the vendor.
  * 
  * @author Bo Maryniuk
  */
@@ -37,6 +47,12 @@ public abstract class GenericDriver implements DBConnectionDriver {
     private String url;
     protected Connection connection;
     protected ConnectionCallback callback;
+    protected ConnectionInfo info;
+    private volatile EmbeddedConnectionPool connectionPool;
+    private final ReentrantLock poolLock = new ReentrantLock();
+    private boolean pooled;
+    private volatile String metaUrl;
+    private volatile String metaProductName;
 
     GenericDriver() {}
 
@@ -81,6 +97,22 @@ public abstract class GenericDriver implements DBConnectionDriver {
     }
     
     
+    /**
+     * Create a connection from the connection meta.
+     *
+     * @param info
+     * @throws URISyntaxException
+     * @throws SQLException
+     */
+    public GenericDriver(ConnectionInfo info)
+            throws URISyntaxException,
+                   SQLException,
+                   Exception {
+        this(info.getUrl());
+        this.info = info;
+    }
+
+
     /**
      * Parse URL for connect.
      */
@@ -167,15 +199,152 @@ public abstract class GenericDriver implements DBConnectionDriver {
             } catch (SQLException ex) {
                 Logger.getLogger(GenericDriver.class.getName()).log(Level.SEVERE, null, ex);
             }
+            this.connection = null;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        this.close();
+        EmbeddedConnectionPool pool;
+        this.poolLock.lock();
+        try {
+            pool = this.connectionPool;
+            this.connectionPool = null;
+        } finally {
+            this.poolLock.unlock();
+        }
+
+        if (pool != null) {
+            pool.shutdown();
         }
     }
 
+
+    @Override
+    public String dumpLeases() {
+        EmbeddedConnectionPool pool = this.connectionPool;
+        return pool != null ? pool.dumpLeases() : "";
+    }
+
+    /**
+     * Get current connection of the driver. If it was closed or returned, the next one
+     * is leased from the pool, so the driver is never re-created to reconnect.
+     *
+     * @return
+     */
     @Override
     public Connection getConnection() {
+        if (!this.pooled) {
+            return this.connection;
+        }
+
+        try {
+            if (this.connection != null && this.connection.isClosed()) {
+                Logger.getLogger(GenericDriver.class.getName()).log(Level.WARNING, "Connection has been lost, reconnecting.");
+                this.getConnectionPool().evictConnection(this.connection);
+                this.connection = null;
+            }
+
+            if (this.connection == null) {
+                this.attach();
+            }
+        } catch (SQLException ex) {
+            Logger.getLogger(GenericDriver.class.getName()).log(Level.SEVERE, null, ex);
+        }
+
         return this.connection;
     }
 
 
+    /**
+     * Lease the current connection of the driver from the pool. The lease is pinned,
+     * as the driver holds it until it is closed.
+     *
+     * @throws SQLException
+     */
+    protected void attach() throws SQLException {
+        EmbeddedConnectionPool pool = this.getConnectionPool();
+        this.connection = pool.getConnection();
+        pool.pinConnection(this.connection);
+        this.pooled = true;
+        if (this.callback != null) {
+            this.callback.onConnect();
+        }
+    }
+
+
+    /**
+     * Open new physical connection to the database. Used by the connection pool.
+     *
+     * @return
+     * @throws SQLException
+     */
+    protected Connection openConnection() throws SQLException {
+        throw new UnsupportedOperationException("Pooling is not yet implemented for this driver.");
+    }
+
+
+    /**
+     * Get connection pool of the driver.
+     *
+     * @return
+     */
+    protected EmbeddedConnectionPool getConnectionPool() {
+        EmbeddedConnectionPool pool = this.connectionPool;
+        if (pool != null) {
+            return pool;
+        }
+
+        this.poolLock.lock();
+        try {
+            if (this.connectionPool == null) {
+                pool = new EmbeddedConnectionPool(new ConnectionFactory() {
+                    @Override
+                    public Connection open() throws SQLException {
+                        return GenericDriver.this.openConnection();
+                    }
+                });
+
+                if (this.info != null) {
+                    pool.setStatementCacheSize(this.info.getOption(Constants.DB_TAG_STATEMENT_CACHE_SIZE, StatementCache.DEFAULT_SIZE));
+                    pool.setPoolSize(this.info.getOption(Constants.DB_TAG_POOL_MIN_SIZE, pool.getMinSize()),
+                                     this.info.getOption(Constants.DB_TAG_POOL_MAX_SIZE, pool.getMaxSize()));
+                    pool.setAcquireTimeout(this.info.getOption(Constants.DB_TAG_POOL_ACQUIRE_TIMEOUT, pool.getAcquireTimeout()));
+                    pool.setIdleTimeout(this.info.getOption(Constants.DB_TAG_POOL_IDLE_TIMEOUT, pool.getIdleTimeout()));
+                    pool.setMaxLifetime(this.info.getOption(Constants.DB_TAG_POOL_MAX_LIFETIME, pool.getMaxLifetime()));
+                    pool.setKeepaliveTime(this.info.getOption(Constants.DB_TAG_POOL_KEEPALIVE_TIME, pool.getKeepaliveTime()));
+                    pool.setMaintenanceInterval(this.info.getOption(Constants.DB_TAG_POOL_MAINTENANCE_INTERVAL, pool.getMaintenanceInterval()));
+                    pool.setValidationTimeout(this.info.getOption(Constants.DB_TAG_POOL_VALIDATION_TIMEOUT, pool.getValidationTimeout()));
+                    pool.setValidationSkipWindow(this.info.getOption(Constants.DB_TAG_POOL_VALIDATION_SKIP_WINDOW, pool.getValidationSkipWindow()));
+                    pool.setValidationQuery(this.info.getOption(Constants.DB_TAG_POOL_VALIDATION_QUERY));
+                    pool.setFillThreads(this.info.getOption(Constants.DB_TAG_POOL_FILL_THREADS, pool.getFillThreads()));
+                    pool.setLeakDetectionThreshold(this.info.getOption(Constants.DB_TAG_POOL_LEAK_DETECTION_THRESHOLD, pool.getLeakDetectionThreshold()));
+                    pool.setLeakTraceSampling(this.info.getOption(Constants.DB_TAG_POOL_LEAK_TRACE_SAMPLING, pool.getLeakTraceSampling()));
+                }
+                this.connectionPool = pool;
+                pool.registerMBean(this.info != null ? this.info.getTag() : this.url);
+
+                long wait = this.info != null ? this.info.getOption(Constants.DB_TAG_POOL_PREWARM_WAIT, 0L) : 0L;
+                if (!pool.prewarm(wait) && wait > 0) {
+                    Logger.getLogger(GenericDriver.class.getName()).log(Level.WARNING, "Connection pool is not warm after {0}ms: {1}",
+                                                                        new Object[]{wait, pool.getState()});
+                }
+            }
+
+            return this.connectionPool;
+        } finally {
+            this.poolLock.unlock();
+        }
+    }
+
+
+    @Override
+    public Connection leaseConnection() throws SQLException {
+        return this.getConnectionPool().getConnection();
+    }
+
+
     @Override
     public void setConnectionCallback(ConnectionCallback callback) {
         this.callback = callback;
@@ -185,11 +354,49 @@ public abstract class GenericDriver implements DBConnectionDriver {
     @Override
     public DatabaseMetaData getDatabaseMetaData() {
         try {
-            return this.connection.getMetaData();
+            Connection conn = this.getConnection();
+            return conn != null ? conn.getMetaData() : null;
         } catch (SQLException ex) {
             Logger.getLogger(GenericDriver.class.getName()).log(Level.SEVERE, null, ex);
         }
         
         return null;
     }
+
+
+    @Override
+    public String getExplainStatement(String sql) {
+        return null;
+    }
+
+
+    @Override
+    public String getDatabaseProductName() {
+        this.loadMetaData();
+        return this.metaProductName;
+    }
+
+
+    @Override
+    public String getDatabaseUrl() {
+        this.loadMetaData();
+        return this.metaUrl;
+    }
+
+
+    private void loadMetaData() {
+        if (this.metaProductName != null) {
+            return;
+        }
+
+        DatabaseMetaData meta = this.getDatabaseMetaData();
+        if (meta != null) {
+            try {
+                this.metaUrl = meta.getURL();
+                this.metaProductName = meta.getDatabaseProductName();
+            } catch (SQLException ex) {
+                Logger.getLogger(GenericDriver.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
 }
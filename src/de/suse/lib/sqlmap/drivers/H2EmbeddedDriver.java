@@ -18,6 +18,7 @@ package de.suse.lib.sqlmap.drivers;
 
 import de.suse.lib.sqlmap.ConnectionInfo;
 import java.net.URISyntaxException;
+import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 
@@ -29,14 +30,12 @@ import java.sql.SQLException;
 public class H2EmbeddedDriver extends GenericDriver {
     private final static String PROTO = "jdbc:h2://";
     private final static String DRIVER = "org.h2.Driver";
-    private ConnectionInfo info;
 
     public H2EmbeddedDriver(ConnectionInfo info)
             throws URISyntaxException,
                    SQLException,
                    Exception {
-        super(info.getUrl());
-        this.info = info;
+        super(info);
         Class.forName(H2EmbeddedDriver.DRIVER);
     }
 
@@ -62,7 +61,19 @@ public class H2EmbeddedDriver extends GenericDriver {
             throw new Exception("Unknown database.");
         }
 
-        this.connection = DriverManager.getConnection("jdbc:h2:" + this.getDatabaseName(), this.info.getUser(), this.info.getPassword());
+        this.attach();
         return this;
     }
+
+
+    @Override
+    protected Connection openConnection() throws SQLException {
+        return DriverManager.getConnection("jdbc:h2:" + this.getDatabaseName(), this.info.getUser(), this.info.getPassword());
+    }
+
+
+    @Override
+    public String getExplainStatement(String sql) {
+        return "EXPLAIN " + sql;
+    }
 }
@@ -18,8 +18,9 @@
 package de.suse.lib.sqlmap.drivers;
 
 import de.suse.lib.sqlmap.ConnectionInfo;
-import de.suse.lib.sqlmap.pool.EmbeddedConnectionPool;
 import java.net.URISyntaxException;
+import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.SQLException;
 
 /**
@@ -29,16 +30,13 @@ import java.sql.SQLException;
 public class H2EmbeddedServerDriver extends GenericDriver {
     private final static String PROTO = "jdbc:h2:tcp://";
     private final static String DRIVER = "org.h2.Driver";
-    private ConnectionInfo info;
-    private EmbeddedConnectionPool connectionPool;
 
 
     public H2EmbeddedServerDriver(ConnectionInfo info)
             throws URISyntaxException,
                    SQLException,
                    Exception {
-        super(info.getUrl());
-        this.info = info;
+        super(info);
         Class.forName(H2EmbeddedServerDriver.DRIVER);
     }
 
@@ -47,12 +45,9 @@ public class H2EmbeddedServerDriver extends GenericDriver {
     protected void parseURL() throws SQLException {}
 
 
-    private EmbeddedConnectionPool getConnectionPool() {
-        if (this.connectionPool == null) {
-            this.connectionPool = new EmbeddedConnectionPool(this.getUrl(), this.info.getUser(), this.info.getPassword());
-        }
-
-        return this.connectionPool;
+    @Override
+    protected Connection openConnection() throws SQLException {
+        return DriverManager.getConnection(this.getUrl(), this.info.getUser(), this.info.getPassword());
     }
 
 
@@ -64,11 +59,17 @@ public class H2EmbeddedServerDriver extends GenericDriver {
 
 
     public H2EmbeddedServerDriver connect() throws SQLException, Exception {
-        this.connection = this.getConnectionPool().getConnection();
+        this.attach();
         return this;
     }
 
     public int getPoolSize() {
         return this.getConnectionPool().getPoolSize();
     }
+
+
+    @Override
+    public String getExplainStatement(String sql) {
+        return "EXPLAIN " + sql;
+    }
 }
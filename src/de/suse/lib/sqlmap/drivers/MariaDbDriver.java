@@ -16,6 +16,7 @@
 
 package de.suse.lib.sqlmap.drivers;
 
+import de.suse.lib.sqlmap.ConnectionInfo;
 import java.net.URISyntaxException;
 import java.sql.Connection;
 import java.sql.DriverManager;
@@ -45,6 +46,15 @@ public class MariaDbDriver extends GenericDriver {
     }
 
 
+    public MariaDbDriver(ConnectionInfo info)
+            throws URISyntaxException,
+                   SQLException,
+                   Exception {
+        super(info);
+        Class.forName(MariaDbDriver.DRIVER);
+    }
+
+
     @Override
     protected void parseURL() throws SQLException {
         if (this.getUrl().startsWith(MariaDbDriver.PROTO)) {
@@ -88,6 +98,7 @@ public class MariaDbDriver extends GenericDriver {
             this.dataSource.setUser(user);
             this.dataSource.setPassword(password);
         }
+        this.attach();
 
         return this;
     }
@@ -95,13 +106,17 @@ public class MariaDbDriver extends GenericDriver {
     
 
     @Override
-    public Connection getConnection() {
-        try {
-            this.connection = this.dataSource.getConnection();
-        } catch (SQLException ex) {
-            Logger.getLogger(MariaDbDriver.class.getName()).log(Level.SEVERE, null, ex);
+    protected Connection openConnection() throws SQLException {
+        if (this.dataSource == null) {
+            throw new SQLException("Database is not yet connected.");
         }
 
-        return this.connection;
+        return this.dataSource.getConnection();
+    }
+
+
+    @Override
+    public String getExplainStatement(String sql) {
+        return "EXPLAIN " + sql;
     }
 }
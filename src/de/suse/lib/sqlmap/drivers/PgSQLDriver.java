@@ -16,11 +16,10 @@
 
 package de.suse.lib.sqlmap.drivers;
 
+import de.suse.lib.sqlmap.ConnectionInfo;
 import java.net.URISyntaxException;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import org.postgresql.ds.PGConnectionPoolDataSource;
 
 
@@ -53,6 +52,24 @@ public class PgSQLDriver extends GenericDriver {
     }
 
 
+    /**
+     * Create a driver from the connection meta.
+     *
+     * @param info
+     * @throws URISyntaxException
+     * @throws ClassNotFoundException
+     * @throws SQLException
+     */
+    public PgSQLDriver(ConnectionInfo info)
+            throws URISyntaxException,
+                   ClassNotFoundException,
+                   SQLException,
+                   Exception {
+        super(info);
+        Class.forName(PgSQLDriver.DRIVER);
+    }
+
+
     @Override
     protected void parseURL() throws SQLException {
         if (this.getUrl().startsWith(PgSQLDriver.PROTO)) {
@@ -118,19 +135,24 @@ public class PgSQLDriver extends GenericDriver {
             this.connectionPoolDataSource.setUser(user);
             this.connectionPoolDataSource.setPassword(password);
         }
+        this.attach();
 
         return this;
     }
 
 
     @Override
-    public Connection getConnection() {
-        try {
-            this.connection = this.connectionPoolDataSource.getConnection();
-        } catch (SQLException ex) {
-            Logger.getLogger(PgSQLDriver.class.getName()).log(Level.SEVERE, null, ex);
+    protected Connection openConnection() throws SQLException {
+        if (this.connectionPoolDataSource == null) {
+            throw new SQLException("Database is not yet connected.");
         }
 
-        return this.connection;
+        return this.connectionPoolDataSource.getConnection();
+    }
+
+
+    @Override
+    public String getExplainStatement(String sql) {
+        return "EXPLAIN " + sql;
     }
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Opening of a physical connection by the pool.
+ *
+ * @author Bo Maryniuk
+ */
+@Name("de.suse.lib.sqlmap.ConnectionOpen")
+@Label("Connection Open")
+@Category("tiny-sqlmap")
+@Description("Opening of a physical pooled connection")
+@StackTrace(false)
+public class ConnectionOpenEvent extends Event {
+    @Label("Pool")
+    public String pool;
+
+    @Label("Failed")
+    public boolean failed;
+}
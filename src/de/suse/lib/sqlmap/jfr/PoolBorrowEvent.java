@@ -0,0 +1,60 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Borrowing a connection from the pool, including the wait for a free one.
+ *
+ * @author Bo Maryniuk
+ */
+@Name("de.suse.lib.sqlmap.PoolBorrow")
+@Label("Connection Borrow")
+@Category("tiny-sqlmap")
+@Description("Wait for a pooled connection")
+@Threshold("1 ms")
+@StackTrace(false)
+public class PoolBorrowEvent extends Event {
+    @Label("Pool")
+    public String pool;
+
+    @Label("Active")
+    @Description("Leased connections after the borrow")
+    public int active;
+
+    @Label("Total")
+    public int total;
+
+    @Label("Waiting")
+    @Description("Other threads, waiting for a connection")
+    public int waiting;
+
+    @Label("Timed Out")
+    @Description("No connection became available within the acquire timeout")
+    public boolean timedOut;
+
+    @Label("Failed")
+    @Description("Borrow failed for another reason than the timeout, e.g. the connection could not be opened")
+    public boolean failed;
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Preparation of a statement, either by the database or from the statement cache.
+ *
+ * @author Bo Maryniuk
+ */
+@Name("de.suse.lib.sqlmap.Prepare")
+@Label("SQL Prepare")
+@Category("tiny-sqlmap")
+@Description("Preparation of a statement of a querypath")
+@Threshold("1 ms")
+@StackTrace(false)
+public class PrepareEvent extends Event {
+    @Label("Querypath")
+    public String querypath;
+
+    @Label("SQL")
+    public String sql;
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Call of a querypath by the mapper, from the template lookup until the result is returned.
+ *
+ * @author Bo Maryniuk
+ */
+@Name("de.suse.lib.sqlmap.Query")
+@Label("SQL Query")
+@Category("tiny-sqlmap")
+@Description("Call of a querypath by SQLMapper")
+@Threshold("10 ms")
+@StackTrace(false)
+public class QueryEvent extends Event {
+    @Label("Tag")
+    public String tag;
+
+    @Label("Querypath")
+    public String querypath;
+
+    @Label("Statements")
+    public int statements;
+
+    @Label("Rows")
+    @Description("Rows read or changed, -1 if read later by the caller")
+    public long rows;
+
+    @Label("Failed")
+    public boolean failed;
+}
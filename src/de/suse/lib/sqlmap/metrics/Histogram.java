@@ -0,0 +1,257 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap.metrics;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Histogram of non-negative values, e.g. latencies in nanoseconds.
+ *
+ * Values up to 15 have a bucket each. Above that, every power of two is split into
+ * eight linear buckets, so percentiles are precise to 12.5% over the whole long range.
+ * Buckets are striped counters, created on the first hit, so recording from many threads
+ * does not contend and unused ranges cost no memory.
+ *
+ * @author Bo Maryniuk
+ */
+public class Histogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << Histogram.SUB_BITS;
+    public static final int BUCKETS = (62 - Histogram.SUB_BITS + 2) * Histogram.SUB_BUCKETS;
+
+    private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+        @Override
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    };
+
+    private final AtomicReferenceArray<LongAdder> buckets;
+    private final LongAdder count;
+    private final LongAdder sum;
+    private final LongAccumulator max;
+
+
+    /**
+     * Recorded values at one moment.
+     */
+    public static class Snapshot {
+        private final long count;
+        private final long sum;
+        private final long max;
+        private final long[] counts;
+
+        Snapshot(long[] counts, long sum, long max) {
+            long recorded = 0;
+            for (long bucket : counts) {
+                recorded += bucket;
+            }
+
+            this.count = recorded;
+            this.sum = sum;
+            this.max = max;
+            this.counts = counts;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public long getSum() {
+            return this.sum;
+        }
+
+        public long getMax() {
+            return this.max;
+        }
+
+        public double getMean() {
+            return this.count == 0 ? 0 : (double) this.sum / this.count;
+        }
+
+        /**
+         * Get the upper bound of the bucket, where the percentile falls, but not more than the maximum.
+         *
+         * @param percentile From 0 to 100.
+         * @return
+         */
+        public long getPercentile(double percentile) {
+            if (this.count == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(this.count * Math.min(100, Math.max(0, percentile)) / 100));
+            long seen = 0;
+            for (int i = 0; i < this.counts.length; i++) {
+                seen += this.counts[i];
+                if (seen >= rank) {
+                    return Math.min(Histogram.getBucketBound(i), this.max);
+                }
+            }
+
+            return this.max;
+        }
+
+        /**
+         * Get counts of all buckets.
+         *
+         * @return
+         * @see Histogram#getBucketBound(int)
+         */
+        public long[] getBucketCounts() {
+            return this.counts.clone();
+        }
+    }
+
+
+    public Histogram() {
+        this.buckets = new AtomicReferenceArray<LongAdder>(Histogram.BUCKETS);
+        this.count = new LongAdder();
+        this.sum = new LongAdder();
+        this.max = new LongAccumulator(Histogram.MAX, 0);
+    }
+
+
+    /**
+     * Record value. Negative values count as zero.
+     *
+     * @param value
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        int index = Histogram.bucketOf(value);
+        LongAdder bucket = this.buckets.get(index);
+        if (bucket == null) {
+            this.buckets.compareAndSet(index, null, new LongAdder());
+            bucket = this.buckets.get(index);
+        }
+
+        bucket.increment();
+        this.count.increment();
+        this.sum.add(value);
+        this.max.accumulate(value);
+    }
+
+
+    private static int bucketOf(long value) {
+        if (value < Histogram.SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - Histogram.SUB_BITS;
+        return (shift + 1) * Histogram.SUB_BUCKETS + (int) ((value >>> shift) & (Histogram.SUB_BUCKETS - 1));
+    }
+
+
+    /**
+     * Get the largest value, which falls into the bucket.
+     *
+     * @param bucket
+     * @return
+     */
+    public static long getBucketBound(int bucket) {
+        if (bucket < Histogram.SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int shift = bucket / Histogram.SUB_BUCKETS - 1;
+        long lower = (long) (Histogram.SUB_BUCKETS + bucket % Histogram.SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+
+    public long getCount() {
+        return this.count.sum();
+    }
+
+
+    public long getSum() {
+        return this.sum.sum();
+    }
+
+
+    public long getMax() {
+        return this.max.get();
+    }
+
+
+    public double getMean() {
+        long recorded = this.count.sum();
+        return recorded == 0 ? 0 : (double) this.sum.sum() / recorded;
+    }
+
+
+    /**
+     * Get percentile of the recorded values.
+     *
+     * @param percentile From 0 to 100.
+     * @return
+     * @see Snapshot#getPercentile(double)
+     */
+    public long getPercentile(double percentile) {
+        return this.snapshot().getPercentile(percentile);
+    }
+
+
+    /**
+     * Get counts of all buckets.
+     *
+     * @return
+     * @see #getBucketBound(int)
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[Histogram.BUCKETS];
+        for (int i = 0; i < counts.length; i++) {
+            LongAdder bucket = this.buckets.get(i);
+            counts[i] = bucket == null ? 0 : bucket.sum();
+        }
+
+        return counts;
+    }
+
+
+    /**
+     * Take snapshot of the recorded values. Buckets are read one by one while recording
+     * goes on, so the snapshot is consistent in itself, but not atomic.
+     *
+     * @return
+     */
+    public Snapshot snapshot() {
+        long[] counts = this.getBucketCounts();
+        long max = this.max.get();
+        long sum = this.sum.sum();
+
+        return new Snapshot(counts, sum, max);
+    }
+
+
+    public void reset() {
+        for (int i = 0; i < this.buckets.length(); i++) {
+            LongAdder bucket = this.buckets.get(i);
+            if (bucket != null) {
+                bucket.reset();
+            }
+        }
+        this.count.reset();
+        this.sum.reset();
+        this.max.reset();
+    }
+}
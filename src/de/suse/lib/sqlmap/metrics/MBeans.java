@@ -0,0 +1,86 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registration of the MBeans in the platform MBean server.
+ *
+ * @author Bo Maryniuk
+ */
+public final class MBeans {
+    public static final String DOMAIN = "de.suse.lib.sqlmap";
+
+    private MBeans() {
+    }
+
+
+    /**
+     * Register MBean as "de.suse.lib.sqlmap:type=[type],name=[name]". If the name is taken,
+     * e.g. by another mapper on the same tag, a number is appended. Failures are only logged,
+     * as monitoring should never break the database access.
+     *
+     * @param type
+     * @param name
+     * @param mbean
+     * @return registered name or null.
+     */
+    public static ObjectName register(String type, String name, Object mbean) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (int i = 1; ; i++) {
+            try {
+                ObjectName objectName = new ObjectName(String.format("%s:type=%s,name=%s",
+                        MBeans.DOMAIN, type, ObjectName.quote(i == 1 ? name : name + "-" + i)));
+                server.registerMBean(mbean, objectName);
+                return objectName;
+            } catch (InstanceAlreadyExistsException ex) {
+                // Try the next number
+            } catch (JMException ex) {
+                Logger.getLogger(MBeans.class.getName()).log(Level.WARNING, "Can not register MBean: {0}", ex.getLocalizedMessage());
+                return null;
+            } catch (SecurityException ex) {
+                Logger.getLogger(MBeans.class.getName()).log(Level.WARNING, "Can not register MBean: {0}", ex.getLocalizedMessage());
+                return null;
+            }
+        }
+    }
+
+
+    /**
+     * Unregister MBean, if registered.
+     *
+     * @param objectName
+     */
+    public static void unregister(ObjectName objectName) {
+        if (objectName == null) {
+            return;
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException ex) {
+            Logger.getLogger(MBeans.class.getName()).log(Level.FINE, null, ex);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap.metrics;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies of one querypath, split into the phases of a call.
+ *
+ * Phases are recorded in nanoseconds, once per call, as measured by its QueryTimer.
+ * Phases, which did not occur in the call, e.g. commit of a SELECT, are not recorded.
+ * Recording is lock-free.
+ *
+ * @author Bo Maryniuk
+ */
+public class QueryMetrics implements QueryMetricsMXBean {
+    /**
+     * Phases of a call.
+     */
+    public enum Phase {
+        /** Looking up or compiling the template. */
+        TEMPLATE,
+        /** Waiting for a connection. */
+        ACQUIRE,
+        /** Rendering the statement and binding the parameters. */
+        BIND,
+        /** Preparing the statement or getting it from the statement cache. */
+        PREPARE,
+        /** Executing the statement. */
+        EXECUTE,
+        /** Commit or rollback. */
+        COMMIT,
+        /** Whole call, until the result is returned. */
+        TOTAL
+    }
+
+    private final String querypath;
+    private final Histogram[] phases;
+    private final LongAdder calls;
+    private final LongAdder errors;
+
+
+    /**
+     * Recorded metrics of a querypath at one moment.
+     */
+    public static class Snapshot {
+        private final String querypath;
+        private final long calls;
+        private final long errors;
+        private final Map<Phase, Histogram.Snapshot> phases;
+
+        Snapshot(String querypath, long calls, long errors, Map<Phase, Histogram.Snapshot> phases) {
+            this.querypath = querypath;
+            this.calls = calls;
+            this.errors = errors;
+            this.phases = Collections.unmodifiableMap(phases);
+        }
+
+        public String getQuerypath() {
+            return this.querypath;
+        }
+
+        public long getCalls() {
+            return this.calls;
+        }
+
+        public long getErrors() {
+            return this.errors;
+        }
+
+        /**
+         * Get latencies of the phase in nanoseconds.
+         *
+         * @param phase
+         * @return
+         */
+        public Histogram.Snapshot getPhase(Phase phase) {
+            return this.phases.get(phase);
+        }
+
+        public Map<Phase, Histogram.Snapshot> getPhases() {
+            return this.phases;
+        }
+
+        @Override
+        public String toString() {
+            Histogram.Snapshot total = this.phases.get(Phase.TOTAL);
+            return String.format("%s: calls=%d, errors=%d, p50=%dus, p99=%dus, max=%dus", this.querypath, this.calls, this.errors,
+                                 TimeUnit.NANOSECONDS.toMicros(total.getPercentile(50)),
+                                 TimeUnit.NANOSECONDS.toMicros(total.getPercentile(99)),
+                                 TimeUnit.NANOSECONDS.toMicros(total.getMax()));
+        }
+    }
+
+
+    QueryMetrics(String querypath) {
+        this.querypath = querypath;
+        this.phases = new Histogram[Phase.values().length];
+        for (int i = 0; i < this.phases.length; i++) {
+            this.phases[i] = new Histogram();
+        }
+        this.calls = new LongAdder();
+        this.errors = new LongAdder();
+    }
+
+
+    /**
+     * Record phases of a finished call.
+     *
+     * @param phases Nanoseconds by phase ordinal.
+     * @param seen Bit mask of the phases, which occurred.
+     */
+    void called(long[] phases, int seen) {
+        this.calls.increment();
+        for (int i = 0; i < phases.length; i++) {
+            if ((seen & (1 << i)) != 0) {
+                this.phases[i].record(phases[i]);
+            }
+        }
+    }
+
+
+    /**
+     * Count failed call.
+     */
+    void failed() {
+        this.errors.increment();
+    }
+
+
+    public Snapshot snapshot() {
+        Map<Phase, Histogram.Snapshot> snapshots = new EnumMap<Phase, Histogram.Snapshot>(Phase.class);
+        for (Phase phase : Phase.values()) {
+            snapshots.put(phase, this.phases[phase.ordinal()].snapshot());
+        }
+
+        return new Snapshot(this.querypath, this.calls.sum(), this.errors.sum(), snapshots);
+    }
+
+
+    @Override
+    public String getQuerypath() {
+        return this.querypath;
+    }
+
+
+    @Override
+    public long getCalls() {
+        return this.calls.sum();
+    }
+
+
+    @Override
+    public long getErrors() {
+        return this.errors.sum();
+    }
+
+
+    @Override
+    public Map<String, Double> getMean() {
+        Map<String, Double> means = new LinkedHashMap<String, Double>();
+        for (Phase phase : Phase.values()) {
+            means.put(phase.name(), this.phases[phase.ordinal()].getMean() / 1000);
+        }
+
+        return means;
+    }
+
+
+    @Override
+    public Map<String, Long> getP50() {
+        return this.percentiles(50);
+    }
+
+
+    @Override
+    public Map<String, Long> getP99() {
+        return this.percentiles(99);
+    }
+
+
+    @Override
+    public Map<String, Long> getP999() {
+        return this.percentiles(99.9);
+    }
+
+
+    @Override
+    public Map<String, Long> getMax() {
+        Map<String, Long> max = new LinkedHashMap<String, Long>();
+        for (Phase phase : Phase.values()) {
+            max.put(phase.name(), TimeUnit.NANOSECONDS.toMicros(this.phases[phase.ordinal()].getMax()));
+        }
+
+        return max;
+    }
+
+
+    private Map<String, Long> percentiles(double percentile) {
+        Map<String, Long> percentiles = new LinkedHashMap<String, Long>();
+        for (Phase phase : Phase.values()) {
+            percentiles.put(phase.name(), TimeUnit.NANOSECONDS.toMicros(this.phases[phase.ordinal()].getPercentile(percentile)));
+        }
+
+        return percentiles;
+    }
+
+
+    @Override
+    public void reset() {
+        for (Histogram phase : this.phases) {
+            phase.reset();
+        }
+        this.calls.reset();
+        this.errors.reset();
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics of one querypath. Times are in microseconds, keyed by phase.
+ *
+ * @author Bo Maryniuk
+ */
+public interface QueryMetricsMXBean {
+    public String getQuerypath();
+
+    public long getCalls();
+
+    public long getErrors();
+
+    public Map<String, Double> getMean();
+
+    public Map<String, Long> getP50();
+
+    public Map<String, Long> getP99();
+
+    public Map<String, Long> getP999();
+
+    public Map<String, Long> getMax();
+
+    /**
+     * Reset counters and histograms.
+     */
+    public void reset();
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of all querypaths of a mapper.
+ *
+ * Metrics of a querypath are created on its first call and, if JMX is on, registered
+ * as MXBean "de.suse.lib.sqlmap:type=Query,name=[querypath]". The MXBeans stay registered
+ * until the registry is cleared, which the mapper does on close().
+ *
+ * @author Bo Maryniuk
+ */
+public class QueryMetricsRegistry {
+    private final ConcurrentMap<String, QueryMetrics> metrics;
+    private final Map<String, ObjectName> mbeans;
+    private volatile boolean enabled;
+    private volatile boolean jmx;
+
+
+    public QueryMetricsRegistry() {
+        this.metrics = new ConcurrentHashMap<String, QueryMetrics>();
+        this.mbeans = new ConcurrentHashMap<String, ObjectName>();
+        this.enabled = true;
+        this.jmx = true;
+    }
+
+
+    /**
+     * Start timing a call of the querypath. The timer is off, unless the metrics
+     * are enabled or the caller needs the times anyway.
+     *
+     * @param querypath
+     * @param timed Time the call even if the metrics are disabled.
+     * @return
+     */
+    public QueryTimer start(String querypath, boolean timed) {
+        return this.enabled || timed ? new QueryTimer(this, querypath, true) : QueryTimer.OFF;
+    }
+
+
+    /**
+     * Get metrics of the querypath.
+     *
+     * @param querypath
+     * @return
+     */
+    public QueryMetrics get(String querypath) {
+        QueryMetrics queryMetrics = this.metrics.get(querypath);
+        if (queryMetrics == null) {
+            QueryMetrics created = new QueryMetrics(querypath);
+            queryMetrics = this.metrics.putIfAbsent(querypath, created);
+            if (queryMetrics == null) {
+                queryMetrics = created;
+                if (this.jmx) {
+                    ObjectName name = MBeans.register("Query", querypath, created);
+                    if (name != null) {
+                        this.mbeans.put(querypath, name);
+                        if (this.metrics.get(querypath) != created && this.mbeans.remove(querypath, name)) {
+                            MBeans.unregister(name); // Cleared meanwhile
+                        }
+                    }
+                }
+            }
+        }
+
+        return queryMetrics;
+    }
+
+
+    /**
+     * Take snapshot of all querypaths, sorted by querypath.
+     *
+     * @return
+     */
+    public Map<String, QueryMetrics.Snapshot> snapshot() {
+        Map<String, QueryMetrics.Snapshot> snapshots = new TreeMap<String, QueryMetrics.Snapshot>();
+        for (QueryMetrics queryMetrics : this.metrics.values()) {
+            snapshots.put(queryMetrics.getQuerypath(), queryMetrics.snapshot());
+        }
+
+        return snapshots;
+    }
+
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+
+    /**
+     * Register metrics of the querypaths as MXBeans. Applies to the querypaths called afterwards.
+     *
+     * @param jmx
+     */
+    public void setJmx(boolean jmx) {
+        this.jmx = jmx;
+    }
+
+    public boolean isJmx() {
+        return this.jmx;
+    }
+
+
+    /**
+     * Drop all metrics and unregister their MXBeans.
+     */
+    public void clear() {
+        this.metrics.clear();
+        for (String querypath : this.mbeans.keySet()) {
+            MBeans.unregister(this.mbeans.remove(querypath));
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap.metrics;
+
+import java.util.Locale;
+
+/**
+ * Phase times of one call.
+ *
+ * Phases, which occur several times in a call, e.g. execution of every statement
+ * of a template, are summed up. When the call is finished, its phases are recorded
+ * to the metrics of the querypath. A timer is used by one thread only.
+ *
+ * @author Bo Maryniuk
+ */
+public class QueryTimer {
+    static final QueryTimer OFF = new QueryTimer(null, null, false);
+
+    private final QueryMetricsRegistry registry;
+    private final String querypath;
+    private final boolean enabled;
+    private final long started;
+    private final long[] phases;
+    private int seen;
+    private long elapsed;
+    private long rows;
+    private int sqlHash;
+    private String sql;
+
+
+    QueryTimer(QueryMetricsRegistry registry, String querypath, boolean enabled) {
+        this.registry = registry;
+        this.querypath = querypath;
+        this.enabled = enabled;
+        this.started = enabled ? System.nanoTime() : 0;
+        this.phases = enabled ? new long[QueryMetrics.Phase.values().length] : null;
+    }
+
+
+    /**
+     * Read the clock, if the timer is on.
+     *
+     * @return nanoseconds or zero.
+     */
+    public long mark() {
+        return this.enabled ? System.nanoTime() : 0;
+    }
+
+
+    /**
+     * Add time of the phase, which started at the mark.
+     *
+     * @param phase
+     * @param since Mark of the phase start.
+     * @return mark of the phase end.
+     */
+    public long lap(QueryMetrics.Phase phase, long since) {
+        if (!this.enabled) {
+            return 0;
+        }
+
+        long now = System.nanoTime();
+        this.add(phase, now - since);
+        return now;
+    }
+
+
+    /**
+     * Add duration of the phase.
+     *
+     * @param phase
+     * @param nanos
+     */
+    public void record(QueryMetrics.Phase phase, long nanos) {
+        if (this.enabled) {
+            this.add(phase, nanos);
+        }
+    }
+
+
+    private void add(QueryMetrics.Phase phase, long nanos) {
+        this.phases[phase.ordinal()] += nanos;
+        this.seen |= 1 << phase.ordinal();
+    }
+
+
+    /**
+     * Add rendered statement to the SQL hash of the call.
+     *
+     * @param sql
+     */
+    public void addStatement(String sql) {
+        if (this.enabled) {
+            this.sqlHash = 31 * this.sqlHash + sql.hashCode();
+            this.sql = sql;
+        }
+    }
+
+
+    /**
+     * Get hash of the rendered statements.
+     *
+     * @return
+     */
+    public int getSqlHash() {
+        return this.sqlHash;
+    }
+
+
+    /**
+     * Get the last rendered statement.
+     *
+     * @return SQL or null.
+     */
+    public String getStatement() {
+        return this.sql;
+    }
+
+
+    /**
+     * Count rows, changed by a statement of the call.
+     *
+     * @param count Update count, negative counts are ignored.
+     */
+    public void addRows(long count) {
+        if (this.enabled && count > 0) {
+            this.rows += count;
+        }
+    }
+
+
+    /**
+     * Get rows, changed by the statements of the call.
+     *
+     * @return
+     */
+    public long getRows() {
+        return this.rows;
+    }
+
+
+    /**
+     * Finish successful call and record it to the metrics of the querypath.
+     *
+     * @return elapsed nanoseconds.
+     */
+    public long finish() {
+        if (!this.enabled) {
+            return 0;
+        }
+
+        this.elapsed = System.nanoTime() - this.started;
+        this.add(QueryMetrics.Phase.TOTAL, this.elapsed);
+        if (this.registry.isEnabled()) {
+            this.registry.get(this.querypath).called(this.phases, this.seen);
+        }
+
+        return this.elapsed;
+    }
+
+
+    /**
+     * Count failed call.
+     */
+    public void failed() {
+        if (!this.enabled) {
+            return;
+        }
+
+        this.elapsed = System.nanoTime() - this.started;
+        if (this.registry.isEnabled()) {
+            this.registry.get(this.querypath).failed();
+        }
+    }
+
+
+    /**
+     * Get mark of the call start.
+     *
+     * @return
+     */
+    public long getStarted() {
+        return this.started;
+    }
+
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+
+    public String getQuerypath() {
+        return this.querypath;
+    }
+
+
+    /**
+     * Get time of the phase.
+     *
+     * @param phase
+     * @return nanoseconds or -1, if the phase did not occur.
+     */
+    public long getPhase(QueryMetrics.Phase phase) {
+        return this.enabled && (this.seen & (1 << phase.ordinal())) != 0 ? this.phases[phase.ordinal()] : -1;
+    }
+
+
+    /**
+     * Get time of the finished or failed call.
+     *
+     * @return nanoseconds.
+     */
+    public long getElapsed() {
+        return this.elapsed;
+    }
+
+
+    /**
+     * Describe phases, which occurred, e.g. "template=0.012ms, acquire=0.100ms, ...".
+     *
+     * @return
+     */
+    @Override
+    public String toString() {
+        StringBuilder buff = new StringBuilder();
+        for (QueryMetrics.Phase phase : QueryMetrics.Phase.values()) {
+            long nanos = this.getPhase(phase);
+            if (nanos >= 0) {
+                if (buff.length() > 0) {
+                    buff.append(", ");
+                }
+                buff.append(phase.name().toLowerCase(Locale.ENGLISH)).append('=')
+                    .append(String.format(Locale.ENGLISH, "%.3fms", nanos / 1e6));
+            }
+        }
+
+        return buff.toString();
+    }
+}
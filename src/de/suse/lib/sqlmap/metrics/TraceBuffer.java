@@ -0,0 +1,281 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.suse.lib.sqlmap.metrics;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Ring buffer of the recent calls.
+ *
+ * Writers claim a slot by incrementing a common sequence and put an immutable trace
+ * into it, so they never lock or wait for each other. When the buffer is full, the oldest
+ * traces are overwritten. Dumps read the slots without stopping the writers.
+ *
+ * @author Bo Maryniuk
+ */
+public class TraceBuffer {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final AtomicReferenceArray<Trace> slots;
+    private final AtomicLong sequence;
+    private final int mask;
+    private volatile boolean enabled;
+
+
+    /**
+     * Trace of one call.
+     */
+    public static class Trace {
+        private final long sequence;
+        private final long time;
+        private final String thread;
+        private final String tag;
+        private final String querypath;
+        private final int sqlHash;
+        private final String sql;
+        private final long nanos;
+        private final long rows;
+        private final String error;
+
+
+        Trace(long sequence, String tag, String querypath, int sqlHash, String sql, long nanos, long rows, String error) {
+            this.sequence = sequence;
+            this.time = System.currentTimeMillis();
+            this.thread = Thread.currentThread().getName();
+            this.tag = tag;
+            this.querypath = querypath;
+            this.sqlHash = sqlHash;
+            this.sql = sql;
+            this.nanos = nanos;
+            this.rows = rows;
+            this.error = error;
+        }
+
+
+        public long getSequence() {
+            return this.sequence;
+        }
+
+
+        public long getTime() {
+            return this.time;
+        }
+
+
+        public String getThread() {
+            return this.thread;
+        }
+
+
+        public String getTag() {
+            return this.tag;
+        }
+
+
+        public String getQuerypath() {
+            return this.querypath;
+        }
+
+
+        /**
+         * Get hash of the rendered statements. Calls with the same hash ran the same SQL.
+         *
+         * @return
+         */
+        public int getSqlHash() {
+            return this.sqlHash;
+        }
+
+
+        /**
+         * Get the last rendered statement. It is kept only in the debug mode of the mapper.
+         *
+         * @return SQL or null.
+         */
+        public String getSql() {
+            return this.sql;
+        }
+
+
+        public long getNanos() {
+            return this.nanos;
+        }
+
+
+        /**
+         * Get rows read or changed.
+         *
+         * @return rows or -1, if they are read later by the caller.
+         */
+        public long getRows() {
+            return this.rows;
+        }
+
+
+        public boolean isFailed() {
+            return this.error != null;
+        }
+
+
+        /**
+         * Get error of a failed call.
+         *
+         * @return message or null.
+         */
+        public String getError() {
+            return this.error;
+        }
+
+
+        @Override
+        public String toString() {
+            StringBuilder buff = new StringBuilder();
+            buff.append(new SimpleDateFormat("HH:mm:ss.SSS").format(new Date(this.time)))
+                .append(" [").append(this.thread).append("] ")
+                .append(this.tag).append(':').append(this.querypath)
+                .append(String.format(Locale.ENGLISH, " sql=%08x %.3fms rows=%d ", this.sqlHash, this.nanos / 1e6, this.rows))
+                .append(this.error == null ? "OK" : "FAILED: " + this.error);
+            if (this.sql != null) {
+                buff.append(System.lineSeparator()).append("    ").append(this.sql);
+            }
+
+            return buff.toString();
+        }
+    }
+
+
+    public TraceBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+
+    /**
+     * Create buffer.
+     *
+     * @param capacity Number of kept traces, rounded up to a power of two.
+     */
+    public TraceBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.slots = new AtomicReferenceArray<Trace>(size);
+        this.sequence = new AtomicLong();
+        this.mask = size - 1;
+        this.enabled = true;
+    }
+
+
+    /**
+     * Add trace of a call.
+     *
+     * @param tag
+     * @param querypath
+     * @param sqlHash Hash of the rendered statements.
+     * @param sql Rendered statement or null.
+     * @param nanos Duration of the call.
+     * @param rows Rows read or changed, -1 if unknown.
+     * @param error Message of a failed call or null.
+     */
+    public void record(String tag, String querypath, int sqlHash, String sql, long nanos, long rows, String error) {
+        if (!this.enabled) {
+            return;
+        }
+
+        long seq = this.sequence.getAndIncrement();
+        this.slots.lazySet((int) (seq & this.mask), new Trace(seq, tag, querypath, sqlHash, sql, nanos, rows, error));
+    }
+
+
+    /**
+     * Get kept traces, the oldest first. Traces, which are written during the call,
+     * may be missing.
+     *
+     * @return
+     */
+    public List<Trace> snapshot() {
+        long last = this.sequence.get();
+        long first = last - this.slots.length();
+        List<Trace> traces = new ArrayList<Trace>(this.slots.length());
+        for (int i = 0; i < this.slots.length(); i++) {
+            Trace trace = this.slots.get(i);
+            if (trace != null && trace.sequence >= first && trace.sequence < last) {
+                traces.add(trace);
+            }
+        }
+
+        Collections.sort(traces, new Comparator<Trace>() {
+            @Override
+            public int compare(Trace a, Trace b) {
+                return Long.compare(a.sequence, b.sequence);
+            }
+        });
+
+        return traces;
+    }
+
+
+    /**
+     * Describe kept traces, one per line, the oldest first.
+     *
+     * @return
+     */
+    public String dump() {
+        StringBuilder dump = new StringBuilder();
+        for (Trace trace : this.snapshot()) {
+            dump.append(trace).append(System.lineSeparator());
+        }
+
+        return dump.toString();
+    }
+
+
+    /**
+     * Drop all traces.
+     */
+    public void clear() {
+        for (int i = 0; i < this.slots.length(); i++) {
+            this.slots.set(i, null);
+        }
+    }
+
+
+    public int getCapacity() {
+        return this.slots.length();
+    }
+
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+
+    /**
+     * Turn tracing on or off. Disabled buffer keeps its traces.
+     *
+     * @param enabled
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+}
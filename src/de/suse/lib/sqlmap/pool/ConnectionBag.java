@@ -0,0 +1,293 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap.pool;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free holder of the pooled connections.
+ *
+ * Connections are leased by CAS on their own state, so borrowers do not serialize
+ * on a common lock. A thread first tries the connection it returned last, then scans
+ * the shared list, and then waits in a FIFO queue. Returned connections are leased
+ * on behalf of the longest waiting borrower before they are handed over, so nobody
+ * can take them in between, and new borrowers do not scan while others are waiting.
+ *
+ * @author Bo Maryniuk
+ */
+class ConnectionBag {
+    private final CopyOnWriteArrayList<EmbeddedConnection> connections;
+    private final ThreadLocal<WeakReference<EmbeddedConnection>> lastUsed;
+    private final ConcurrentLinkedQueue<Waiter> queue;
+    private final AtomicInteger waiters;
+    private volatile boolean closed;
+
+
+    /**
+     * Borrower in the queue. It either gets a connection handed over or leaves the queue,
+     * whichever happens first.
+     */
+    private static class Waiter {
+        private static final int WAITING = 0;
+        private static final int HANDED = 1;
+        private static final int LEFT = 2;
+
+        private final Thread thread;
+        private final AtomicInteger state;
+        private volatile EmbeddedConnection conn;
+
+
+        Waiter() {
+            this.thread = Thread.currentThread();
+            this.state = new AtomicInteger(WAITING);
+        }
+
+
+        /**
+         * Hand over connection, leased for the waiter.
+         *
+         * @return false if the waiter has left the queue.
+         */
+        boolean handOver(EmbeddedConnection conn) {
+            this.conn = conn;
+            if (this.state.compareAndSet(WAITING, HANDED)) {
+                LockSupport.unpark(this.thread);
+                return true;
+            }
+            this.conn = null;
+
+            return false;
+        }
+
+
+        /**
+         * Leave the queue.
+         *
+         * @return false if a connection has been handed over meanwhile.
+         */
+        boolean leave() {
+            return this.state.compareAndSet(WAITING, LEFT);
+        }
+
+
+        boolean isHanded() {
+            return this.state.get() == HANDED;
+        }
+    }
+
+
+    ConnectionBag() {
+        this.connections = new CopyOnWriteArrayList<EmbeddedConnection>();
+        this.lastUsed = new ThreadLocal<WeakReference<EmbeddedConnection>>();
+        this.queue = new ConcurrentLinkedQueue<Waiter>();
+        this.waiters = new AtomicInteger();
+    }
+
+
+    /**
+     * Lease a free connection. While others are waiting, the caller gets in line behind them.
+     *
+     * @param timeout Time to wait for a returned connection, zero does not wait.
+     * @param unit
+     * @return leased connection or null, if there is none within the timeout.
+     * @throws InterruptedException
+     */
+    EmbeddedConnection borrow(long timeout, TimeUnit unit) throws InterruptedException {
+        if (this.waiters.get() == 0) {
+            WeakReference<EmbeddedConnection> reference = this.lastUsed.get();
+            if (reference != null) {
+                EmbeddedConnection conn = reference.get();
+                if (conn != null && conn.lease()) {
+                    return conn;
+                }
+            }
+
+            EmbeddedConnection conn = this.scan();
+            if (conn != null) {
+                return conn;
+            }
+        }
+
+        long nanos = unit.toNanos(timeout);
+        if (nanos <= 0) {
+            return null;
+        }
+
+        Waiter waiter = new Waiter();
+        this.waiters.incrementAndGet();
+        this.queue.add(waiter);
+        try {
+            long deadline = System.nanoTime() + nanos;
+            while (true) {
+                if (waiter.isHanded()) {
+                    return waiter.conn;
+                } else if (this.closed) {
+                    return waiter.leave() ? null : waiter.conn;
+                }
+
+                // Only the first in line picks up connections, which were returned before it queued
+                if (this.queue.peek() == waiter) {
+                    EmbeddedConnection conn = this.scan();
+                    if (conn != null) {
+                        if (waiter.leave()) {
+                            return conn;
+                        }
+                        this.requite(conn); // Got another one handed over meanwhile
+                        return waiter.conn;
+                    }
+                }
+
+                nanos = deadline - System.nanoTime();
+                if (Thread.interrupted()) {
+                    if (waiter.leave()) {
+                        throw new InterruptedException();
+                    }
+                    Thread.currentThread().interrupt();
+                    return waiter.conn;
+                } else if (nanos <= 0) {
+                    return waiter.leave() ? null : waiter.conn;
+                }
+
+                LockSupport.parkNanos(this, nanos);
+            }
+        } finally {
+            this.queue.remove(waiter);
+            this.waiters.decrementAndGet();
+            this.wakeFirst(); // Next in line checks for idle connections
+        }
+    }
+
+
+    /**
+     * Wake up all waiting borrowers, so they give up. Borrowers do not wait anymore afterwards.
+     */
+    void close() {
+        this.closed = true;
+        for (Waiter waiter : this.queue) {
+            LockSupport.unpark(waiter.thread);
+        }
+    }
+
+
+    private void wakeFirst() {
+        Waiter first = this.queue.peek();
+        if (first != null) {
+            LockSupport.unpark(first.thread);
+        }
+    }
+
+
+    private EmbeddedConnection scan() {
+        for (EmbeddedConnection conn : this.connections) {
+            if (conn.lease()) {
+                return conn;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Return leased connection. If someone waits, the connection is handed off to the waiter.
+     *
+     * @param conn
+     */
+    void requite(EmbeddedConnection conn) {
+        if (!conn.expireLease()) {
+            return; // Removed meanwhile
+        }
+
+        this.handOff(conn);
+    }
+
+
+    /**
+     * Return connection, reserved by the maintenance.
+     *
+     * @param conn
+     */
+    void unreserve(EmbeddedConnection conn) {
+        if (conn.unreserve()) {
+            this.handOff(conn);
+        }
+    }
+
+
+    private void handOff(EmbeddedConnection conn) {
+        if (this.waiters.get() > 0 && conn.lease()) {
+            for (Waiter waiter = this.queue.poll(); waiter != null; waiter = this.queue.poll()) {
+                if (waiter.handOver(conn)) {
+                    return;
+                }
+            }
+
+            if (!conn.expireLease()) {
+                return; // Removed meanwhile
+            }
+            this.wakeFirst(); // May have queued after the poll
+        }
+
+        WeakReference<EmbeddedConnection> reference = this.lastUsed.get();
+        if (reference == null || reference.get() != conn) {
+            this.lastUsed.set(new WeakReference<EmbeddedConnection>(conn));
+        }
+    }
+
+
+    void add(EmbeddedConnection conn) {
+        this.connections.add(conn);
+    }
+
+
+    /**
+     * Remove connection from the bag. It can not be leased afterwards.
+     *
+     * @param conn
+     * @return false if the connection is not in the bag.
+     */
+    boolean remove(EmbeddedConnection conn) {
+        conn.retire();
+        return this.connections.remove(conn);
+    }
+
+
+    /**
+     * Get all connections, leased or not.
+     *
+     * @return
+     */
+    List<EmbeddedConnection> values() {
+        return this.connections;
+    }
+
+
+    int size() {
+        return this.connections.size();
+    }
+
+
+    int getWaiters() {
+        return this.waiters.get();
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap.pool;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Opens physical connections for the EmbeddedConnectionPool.
+ *
+ * @author Bo Maryniuk
+ */
+public interface ConnectionFactory {
+    /**
+     * Open new physical connection to the database.
+     *
+     * @return
+     * @throws SQLException
+     */
+    public Connection open() throws SQLException;
+}
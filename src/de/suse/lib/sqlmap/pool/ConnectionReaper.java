@@ -16,28 +16,70 @@
 
 package de.suse.lib.sqlmap.pool;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 /**
+ * Scheduled maintenance of the pool: idle eviction, max lifetime and keepalive.
+ * Runs on its own daemon thread, which is stopped with the pool.
  *
  * @author Bo Maryniuk
  */
-public class ConnectionReaper  extends Thread {
+public class ConnectionReaper implements Runnable {
     private EmbeddedConnectionPool pool;
-    private final long delay = 300000;
+    private final ScheduledExecutorService executor;
+    private ScheduledFuture<?> task;
 
     ConnectionReaper(EmbeddedConnectionPool pool) {
         this.pool = pool;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "tiny-sqlmap-pool-reaper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     }
 
 
-    public void run() {
-        while (true) {
-            try {
-                Thread.sleep(ConnectionReaper.this.delay);
-            } catch (InterruptedException e) {
+    /**
+     * Schedule maintenance, replacing the previous schedule.
+     *
+     * @param interval Milliseconds between runs.
+     */
+    synchronized void schedule(long interval) {
+        if (this.executor.isShutdown()) {
+            return;
+        }
+
+        if (this.task != null) {
+            this.task.cancel(false);
+        }
+        this.task = this.executor.scheduleWithFixedDelay(this, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Stop maintenance. A running maintenance is interrupted.
+     */
+    synchronized void shutdown() {
+        this.executor.shutdownNow();
+    }
 
-            }
 
+    @Override
+    public void run() {
+        try {
             pool.reapConnections();
+        } catch (Throwable ex) {
+            // Keep the schedule alive
+            Logger.getLogger(ConnectionReaper.class.getName()).log(Level.WARNING, "Pool maintenance failed.", ex);
         }
     }
 }
@@ -34,38 +34,178 @@ import java.sql.Struct;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  *
  * @author Bo Maryniuk
  */
 class EmbeddedConnection implements Connection {
+    static final int STATE_NOT_IN_USE = 0;
+    static final int STATE_IN_USE = 1;
+    static final int STATE_REMOVED = -1;
+    static final int STATE_RESERVED = -2;
+    static final String DEFAULT_TEST_QUERY = "SELECT 1";
+
+    // Session properties, changed by the borrower
+    private static final int DIRTY_AUTOCOMMIT = 1;
+    private static final int DIRTY_ISOLATION = 2;
+    private static final int DIRTY_READONLY = 4;
+    private static final int DIRTY_CATALOG = 8;
+    private static final int DIRTY_SCHEMA = 16;
 
     private EmbeddedConnectionPool pool;
     private Connection conn;
-    private boolean inuse;
-    private long timestamp;
+    private final AtomicInteger state;
+    private volatile long timestamp;
+    private final long expiresAt;
+    private volatile long validatedAt;
+    private volatile boolean nativeValidation = true;
+    private StatementCache statementCache;
+
+    // Lease record for the leak detection, read by the maintenance
+    private volatile long leasedAt;
+    private volatile long leasedNanos;
+    private volatile String leaseThread;
+    private volatile Throwable leaseTrace;
+    private volatile boolean leakReported;
+    private volatile boolean pinned;
+
+    // Guarded by the lease: only the borrower and then the returning thread touch these
+    private int dirty;
+    private int captured;
+    private boolean autoCommit;
+    private boolean defaultAutoCommit;
+    private int defaultIsolation;
+    private boolean defaultReadOnly;
+    private String defaultCatalog;
+    private String defaultSchema;
+    private boolean transactionClean;
 
     public EmbeddedConnection(Connection conn, EmbeddedConnectionPool pool) {
         this.conn = conn;
         this.pool = pool;
-        this.inuse = false;
-        this.timestamp = 0;
+        this.state = new AtomicInteger(STATE_NOT_IN_USE);
+        this.timestamp = System.currentTimeMillis();
+        this.expiresAt = pool.getMaxLifetime() > 0
+                         ? this.timestamp + pool.getMaxLifetime() - ThreadLocalRandom.current().nextLong(pool.getMaxLifetime() / 40 + 1)
+                         : Long.MAX_VALUE;
+        this.statementCache = new StatementCache(conn, pool.getStatementCacheSize());
+
+        try {
+            this.defaultAutoCommit = conn.getAutoCommit();
+        } catch (SQLException ex) {
+            this.defaultAutoCommit = true;
+        }
+        this.autoCommit = this.defaultAutoCommit;
+        this.captured = DIRTY_AUTOCOMMIT;
+        this.transactionClean = true;
+    }
+
+    /**
+     * Lease the connection. Lock-free, so it does not pin virtual threads.
+     *
+     * @return false if the connection is already leased.
+     */
+    public boolean lease() {
+        if (!state.compareAndSet(STATE_NOT_IN_USE, STATE_IN_USE)) {
+            return false;
+        }
+
+        transactionClean = false;
+        return true;
     }
 
-    public synchronized boolean lease() {
-        if (inuse) {
+    /**
+     * Restore session properties, changed by the borrower, and roll back a transaction,
+     * which was left open. Only what has been changed is restored, so returning an untouched
+     * connection costs no round-trip.
+     *
+     * @return false if the connection failed and should be dropped.
+     */
+    protected boolean reset() {
+        try {
+            if (!autoCommit && !transactionClean) {
+                conn.rollback();
+            }
+
+            if (dirty != 0) {
+                if ((dirty & DIRTY_AUTOCOMMIT) != 0) {
+                    conn.setAutoCommit(defaultAutoCommit);
+                    autoCommit = defaultAutoCommit;
+                }
+                if ((dirty & DIRTY_ISOLATION) != 0) {
+                    conn.setTransactionIsolation(defaultIsolation);
+                }
+                if ((dirty & DIRTY_READONLY) != 0) {
+                    conn.setReadOnly(defaultReadOnly);
+                }
+                if ((dirty & DIRTY_CATALOG) != 0) {
+                    conn.setCatalog(defaultCatalog);
+                }
+                if ((dirty & DIRTY_SCHEMA) != 0) {
+                    conn.setSchema(defaultSchema);
+                }
+                dirty = 0;
+            }
+            transactionClean = true;
+        } catch (SQLException ex) {
+            Logger.getLogger(EmbeddedConnection.class.getName()).log(Level.WARNING, "Could not reset connection: {0}", ex.getLocalizedMessage());
             return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Mark session property as changed, if it differs from the default.
+     */
+    private void mark(int property, boolean changed) {
+        if (changed) {
+            dirty |= property;
         } else {
-            inuse = true;
-            timestamp = System.currentTimeMillis();
-            return true;
+            dirty &= ~property;
         }
     }
 
+    private static boolean differs(String value, String defaultValue) {
+        return value == null ? defaultValue != null : !value.equals(defaultValue);
+    }
+
+    /**
+     * Check if the connection is alive with Connection.isValid() or, if set, the pool's test query.
+     * Drivers without isValid() fall back to the default test query.
+     *
+     * @return
+     */
     public boolean validate() {
+        String query = pool.getValidationQuery();
+        int seconds = (int) Math.max(1, (pool.getValidationTimeout() + 999) / 1000);
         try {
-            conn.getMetaData();
+            if (query == null && nativeValidation) {
+                try {
+                    return conn.isValid(seconds);
+                } catch (SQLException ex) {
+                    nativeValidation = false;
+                } catch (AbstractMethodError ex) {
+                    nativeValidation = false;
+                }
+            }
+
+            Statement statement = conn.createStatement();
+            try {
+                statement.setQueryTimeout(seconds);
+                statement.execute(query != null ? query : DEFAULT_TEST_QUERY);
+            } finally {
+                statement.close();
+            }
+
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+            }
         } catch (Exception e) {
             return false;
         }
@@ -73,9 +213,83 @@ class EmbeddedConnection implements Connection {
     }
 
     public boolean inUse() {
-        return inuse;
+        return state.get() == STATE_IN_USE;
+    }
+
+    /**
+     * Record who leased the connection and when.
+     *
+     * @param trace Capture the stack of the borrower, which is comparably expensive.
+     */
+    void recordLease(boolean trace) {
+        leasedAt = System.currentTimeMillis();
+        leasedNanos = System.nanoTime();
+        leaseThread = Thread.currentThread().getName();
+        leaseTrace = trace ? new Throwable("Connection leased by " + leaseThread) : null;
+        leakReported = false;
+        pinned = false;
+    }
+
+    /**
+     * Mark the current lease as held by a driver for as long as it is connected.
+     */
+    void pin() {
+        pinned = true;
+    }
+
+    boolean isPinned() {
+        return pinned;
+    }
+
+    long getLeasedAt() {
+        return leasedAt;
+    }
+
+    long getLeasedNanos() {
+        return leasedNanos;
+    }
+
+    String getLeaseThread() {
+        return leaseThread;
+    }
+
+    /**
+     * Get stack of the borrower, if it was captured.
+     *
+     * @return
+     */
+    Throwable getLeaseTrace() {
+        return leaseTrace;
+    }
+
+    /**
+     * Mark the current lease as reported leak, so it is reported only once.
+     *
+     * @return false if already reported.
+     */
+    boolean reportLeak() {
+        if (leakReported) {
+            return false;
+        }
+
+        leakReported = true;
+        return true;
+    }
+
+    /**
+     * Check if the connection is free to lease.
+     *
+     * @return
+     */
+    boolean isIdle() {
+        return state.get() == STATE_NOT_IN_USE;
     }
 
+    /**
+     * Get time of the last return to the pool, or of opening, if never leased.
+     *
+     * @return
+     */
     public long getLastUse() {
         return timestamp;
     }
@@ -85,14 +299,88 @@ class EmbeddedConnection implements Connection {
         pool.returnConnection(this);
     }
 
-    protected void expireLease() {
-        inuse = false;
+    /**
+     * Expire the lease.
+     *
+     * @return false if the connection has been removed from the pool meanwhile.
+     */
+    protected boolean expireLease() {
+        timestamp = System.currentTimeMillis();
+        return state.compareAndSet(STATE_IN_USE, STATE_NOT_IN_USE);
+    }
+
+    /**
+     * Reserve idle connection for maintenance, so it can not be leased meanwhile.
+     *
+     * @return false if the connection is not idle.
+     */
+    boolean reserve() {
+        return state.compareAndSet(STATE_NOT_IN_USE, STATE_RESERVED);
+    }
+
+    boolean unreserve() {
+        return state.compareAndSet(STATE_RESERVED, STATE_NOT_IN_USE);
+    }
+
+    /**
+     * Mark the connection as validated by the keepalive check. Does not count as a use.
+     */
+    void touch() {
+        validatedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Get time of the last use or successful validation, whichever is later.
+     *
+     * @return
+     */
+    long getLastAlive() {
+        return Math.max(timestamp, validatedAt);
+    }
+
+    /**
+     * Check if the connection has reached its max lifetime.
+     * The lifetime is shortened by a random jitter, so connections opened together do not retire together.
+     *
+     * @param now
+     * @return
+     */
+    boolean isExpired(long now) {
+        return now >= expiresAt;
+    }
+
+    /**
+     * Mark the connection as removed from the pool, so it can not be leased anymore.
+     */
+    protected void retire() {
+        state.set(STATE_REMOVED);
+    }
+
+    /**
+     * Close the underlying physical connection and its cached statements.
+     */
+    protected void closePhysical() {
+        statementCache.clear();
+        try {
+            conn.close();
+        } catch (SQLException ex) {
+            Logger.getLogger(EmbeddedConnection.class.getName()).log(Level.WARNING, null, ex);
+        }
     }
 
     protected Connection getConnection() {
         return conn;
     }
 
+    /**
+     * Get prepared statements cache of the physical connection.
+     *
+     * @return
+     */
+    protected StatementCache getStatementCache() {
+        return statementCache;
+    }
+
     @Override
     public PreparedStatement prepareStatement(String sql) throws SQLException {
         return conn.prepareStatement(sql);
@@ -116,6 +404,11 @@ class EmbeddedConnection implements Connection {
     @Override
     public void setAutoCommit(boolean autoCommit) throws SQLException {
         conn.setAutoCommit(autoCommit);
+        this.autoCommit = autoCommit;
+        if (autoCommit) {
+            transactionClean = true; // Switching autocommit on commits the transaction
+        }
+        mark(DIRTY_AUTOCOMMIT, autoCommit != defaultAutoCommit);
     }
 
     @Override
@@ -126,11 +419,13 @@ class EmbeddedConnection implements Connection {
     @Override
     public void commit() throws SQLException {
         conn.commit();
+        transactionClean = true;
     }
 
     @Override
     public void rollback() throws SQLException {
         conn.rollback();
+        transactionClean = true;
     }
 
     @Override
@@ -145,7 +440,12 @@ class EmbeddedConnection implements Connection {
 
     @Override
     public void setReadOnly(boolean readOnly) throws SQLException {
+        if ((captured & DIRTY_READONLY) == 0) {
+            defaultReadOnly = conn.isReadOnly();
+            captured |= DIRTY_READONLY;
+        }
         conn.setReadOnly(readOnly);
+        mark(DIRTY_READONLY, readOnly != defaultReadOnly);
     }
 
     @Override
@@ -155,7 +455,12 @@ class EmbeddedConnection implements Connection {
 
     @Override
     public void setCatalog(String catalog) throws SQLException {
+        if ((captured & DIRTY_CATALOG) == 0) {
+            defaultCatalog = conn.getCatalog();
+            captured |= DIRTY_CATALOG;
+        }
         conn.setCatalog(catalog);
+        mark(DIRTY_CATALOG, differs(catalog, defaultCatalog));
     }
 
     @Override
@@ -165,7 +470,12 @@ class EmbeddedConnection implements Connection {
 
     @Override
     public void setTransactionIsolation(int level) throws SQLException {
+        if ((captured & DIRTY_ISOLATION) == 0) {
+            defaultIsolation = conn.getTransactionIsolation();
+            captured |= DIRTY_ISOLATION;
+        }
         conn.setTransactionIsolation(level);
+        mark(DIRTY_ISOLATION, level != defaultIsolation);
     }
 
     @Override
@@ -335,7 +645,12 @@ class EmbeddedConnection implements Connection {
 
     @Override
     public void setSchema(String schema) throws SQLException {
+        if ((captured & DIRTY_SCHEMA) == 0) {
+            defaultSchema = this.conn.getSchema();
+            captured |= DIRTY_SCHEMA;
+        }
         this.conn.setSchema(schema);
+        mark(DIRTY_SCHEMA, differs(schema, defaultSchema));
     }
 
     @Override
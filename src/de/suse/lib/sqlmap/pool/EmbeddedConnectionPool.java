@@ -16,85 +16,826 @@
 
 package de.suse.lib.sqlmap.pool;
 
+import de.suse.lib.sqlmap.jfr.ConnectionOpenEvent;
+import de.suse.lib.sqlmap.jfr.PoolBorrowEvent;
+import de.suse.lib.sqlmap.metrics.MBeans;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.ObjectName;
 
 /**
  * Connection pool for embedded purposes.
  *
+ * Connections are kept in a lock-free bag: borrowing and returning are CAS operations
+ * on the connection state and never block on a common monitor, so the pool scales
+ * with the number of borrowing threads and does not pin virtual threads.
+ *
+ * The pool holds at most maxSize physical connections. When all of them are leased,
+ * borrowers wait up to the acquire timeout and get returned connections in the order
+ * they came.
+ *
+ * Connections are maintained in the background: idle connections above minSize are
+ * closed after the idle timeout, every connection is retired at its max lifetime,
+ * and idle connections are validated after the keepalive time, so stale sockets
+ * are detected before a borrower gets them.
+ *
+ * The minSize connections are opened in the background, several at a time: on prewarm(),
+ * and again whenever connections are retired, so borrowers rarely wait for a connection
+ * to be opened.
+ *
+ * Leases are recorded with their time and thread. The maintenance warns about connections
+ * leased for longer than the leak detection threshold, with the stack of the borrower,
+ * if it was captured. Capturing stacks is sampled, as it costs more than the lease itself.
+ * Connections pinned by a driver are held on purpose and are not reported.
+ *
+ * Pool sizes, borrow waits, lease times and timeouts are collected in PoolMetrics,
+ * which can be registered as an MBean. Borrows and connection openings are also
+ * emitted as JFR events.
+ *
  * @author Bo Maryniuk
  */
 public class EmbeddedConnectionPool {
-    private List<EmbeddedConnection> connections;
-    private String url, user, password;
-    final private long timeout = 60000;
+    private ConnectionBag connections;
+    private ConnectionFactory factory;
     private ConnectionReaper reaper;
     final private int poolsize = 10;
+    private int statementCacheSize = StatementCache.DEFAULT_SIZE;
+    private volatile int minSize = 0;
+    private volatile int maxSize = poolsize;
+    private volatile long acquireTimeout = 30000;
+    private volatile long idleTimeout = 600000;
+    private volatile long maxLifetime = 1800000;
+    private volatile long keepaliveTime = 120000;
+    private volatile long maintenanceInterval = 30000;
+    private volatile long validationTimeout = 5000;
+    private volatile long validationSkipWindow = 500;
+    private volatile String validationQuery = null;
+    private volatile long leakDetectionThreshold = 0;
+    private volatile int leakTraceSampling = 1;
+    private volatile boolean closed;
+    private final ThreadPoolExecutor filler;
+    private final AtomicInteger total = new AtomicInteger(); // Open and opening connections
+    private final PoolMetrics metrics = new PoolMetrics(this);
+    private volatile ObjectName mbeanName;
+    private volatile String name = "pool";
+
 
+    public EmbeddedConnectionPool(final String url, final String user, final String password) {
+        this(new ConnectionFactory() {
+            @Override
+            public Connection open() throws SQLException {
+                return DriverManager.getConnection(url, user, password);
+            }
+        });
+    }
 
-    public EmbeddedConnectionPool(String url, String user, String password) {
-        this.url = url;
-        this.user = user;
-        this.password = password;
-        this.connections = new ArrayList<EmbeddedConnection>();
+
+    /**
+     * Create pool on top of the connection factory.
+     *
+     * @param factory
+     */
+    public EmbeddedConnectionPool(ConnectionFactory factory) {
+        this.factory = factory;
+        this.connections = new ConnectionBag();
+        this.filler = new ThreadPoolExecutor(4, 4, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "tiny-sqlmap-pool-filler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.filler.allowCoreThreadTimeOut(true);
         reaper = new ConnectionReaper(this);
-        reaper.start();
+        reaper.schedule(maintenanceInterval);
+    }
+
+
+    /**
+     * Maintain idle connections: retire expired ones, evict the ones idle for too long
+     * while above minSize, validate the ones idle for the keepalive time, and open
+     * connections up to minSize again. Leased connections are retired on return.
+     */
+    public void reapConnections() {
+        long now = System.currentTimeMillis();
+        int removable = total.get() - minSize;
+
+        for (EmbeddedConnection conn : connections.values()) {
+            if (closed || Thread.currentThread().isInterrupted()) {
+                return;
+            }
+
+            if (!conn.reserve()) {
+                this.checkLeak(conn, now);
+                continue; // Leased
+            }
+
+            long idle = now - conn.getLastUse();
+            boolean drop = false;
+            if (conn.isExpired(now)) {
+                drop = true;
+            } else if (idleTimeout > 0 && idle > idleTimeout && removable > 0) {
+                drop = true;
+            } else if (keepaliveTime > 0 && now - conn.getLastAlive() > keepaliveTime) {
+                drop = !conn.validate();
+                if (!drop) {
+                    conn.touch();
+                }
+            }
+
+            if (drop && this.removeConnection(conn)) {
+                removable--;
+                conn.closePhysical();
+            } else {
+                connections.unreserve(conn);
+            }
+        }
+
+        this.fillPool();
+        if (!closed && connections.getWaiters() > 0) {
+            this.replaceConnection(); // Slot may have been freed just before the borrower queued
+        }
+    }
+
+
+    /**
+     * Warn once per lease about the connection leased for longer than the leak detection threshold.
+     */
+    private void checkLeak(EmbeddedConnection conn, long now) {
+        long leased = now - conn.getLeasedAt();
+        if (leakDetectionThreshold > 0 && conn.inUse() && !conn.isPinned() && leased > leakDetectionThreshold && conn.reportLeak()) {
+            Logger.getLogger(EmbeddedConnectionPool.class.getName()).log(Level.WARNING,
+                    String.format("Connection leased by %s for %dms, possible leak (%s).", conn.getLeaseThread(), leased, this.getState()),
+                    conn.getLeaseTrace());
+        }
     }
 
 
-    public synchronized void reapConnections() {
-        long stale = System.currentTimeMillis() - timeout;
+    /**
+     * Describe all leased connections: since when, by which thread and, if captured, from where.
+     *
+     * @return
+     */
+    public String dumpLeases() {
+        long now = System.currentTimeMillis();
+        StringBuilder dump = new StringBuilder();
+        dump.append("Leases (").append(this.getState()).append("):\n");
+        for (EmbeddedConnection conn : connections.values()) {
+            if (!conn.inUse()) {
+                continue;
+            }
 
-        for (int i = 0; i < connections.size(); i++) {
-            EmbeddedConnection conn = connections.get(i);
-            if ((conn.inUse()) && (stale > conn.getLastUse()) && (!conn.validate())) {
-                this.removeConnection(conn);
+            dump.append(String.format("  %s, leased by %s for %dms%s%n", new Date(conn.getLeasedAt()), conn.getLeaseThread(),
+                                      now - conn.getLeasedAt(), conn.isPinned() ? ", pinned" : ""));
+            Throwable trace = conn.getLeaseTrace();
+            if (trace != null) {
+                for (StackTraceElement element : trace.getStackTrace()) {
+                    dump.append("    at ").append(element).append("\n");
+                }
             }
         }
+
+        return dump.toString();
+    }
+
+
+    /**
+     * Open idle connections up to minSize in the background.
+     * Slots are reserved here, so the pool never goes above its maximum.
+     *
+     * @return pending openings.
+     */
+    private List<Future<?>> fillPool() {
+        List<Future<?>> pending = new ArrayList<Future<?>>();
+        for (int opened = total.get(); opened < minSize && !closed; opened = total.get()) {
+            if (!total.compareAndSet(opened, opened + 1)) {
+                continue;
+            }
+
+            try {
+                pending.add(filler.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        EmbeddedConnectionPool.this.openIdleConnection();
+                    }
+                }));
+            } catch (RejectedExecutionException ex) {
+                total.decrementAndGet();
+                break;
+            }
+        }
+
+        return pending;
+    }
+
+
+    private void openIdleConnection() {
+        EmbeddedConnection conn;
+        try {
+            conn = this.openConnection();
+        } catch (SQLException ex) {
+            Logger.getLogger(EmbeddedConnectionPool.class.getName()).log(Level.WARNING, "Can not open idle connection: {0}", ex.getLocalizedMessage());
+            return;
+        }
+
+        if (closed) {
+            this.retireConnection(conn);
+        } else {
+            connections.requite(conn);
+        }
     }
 
 
-    public synchronized void closeConnections() {
-        for (int i = 0; i < connections.size(); i++) {
-            removeConnection(connections.get(i));
+    /**
+     * Open connections up to minSize in parallel.
+     *
+     * @param timeout Milliseconds to wait until they are open, zero does not wait.
+     * @return true if the pool has at least minSize connections open.
+     */
+    public boolean prewarm(long timeout) {
+        List<Future<?>> pending = this.fillPool();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        for (Future<?> opening : pending) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+
+            try {
+                opening.get(remaining, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException ex) {
+                break;
+            } catch (ExecutionException ex) {
+                Logger.getLogger(EmbeddedConnectionPool.class.getName()).log(Level.WARNING, null, ex);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
         }
+
+        return connections.size() >= minSize;
+    }
+
+
+    /**
+     * Stop maintenance and close all connections. Waiting borrowers fail right away.
+     * The pool can not be used afterwards.
+     */
+    public void shutdown() {
+        closed = true;
+        connections.close();
+        reaper.shutdown();
+        filler.shutdownNow();
+        this.closeConnections();
+        MBeans.unregister(mbeanName);
+        mbeanName = null;
     }
 
 
-    private synchronized void removeConnection(EmbeddedConnection conn) {
-        connections.remove(conn);
+    /**
+     * Register metrics of the pool as MBean "de.suse.lib.sqlmap:type=ConnectionPool,name=[name]".
+     * The MBean is unregistered on shutdown. The name also identifies the pool in JFR events.
+     *
+     * @param name Usually the database tag.
+     */
+    public void registerMBean(String name) {
+        this.name = name;
+        MBeans.unregister(mbeanName);
+        mbeanName = MBeans.register("ConnectionPool", name, metrics);
+    }
+
+
+    public PoolMetrics getMetrics() {
+        return metrics;
+    }
+
+
+    /**
+     * Close all physical connections of the pool.
+     */
+    public void closeConnections() {
+        for (EmbeddedConnection conn : connections.values()) {
+            if (this.removeConnection(conn)) {
+                conn.closePhysical();
+            }
+        }
+    }
+
+
+    /**
+     * Remove and close the connection, and open a replacement if the pool went below minSize.
+     */
+    private void retireConnection(EmbeddedConnection conn) {
+        if (this.removeConnection(conn)) {
+            conn.closePhysical();
+            if (!closed && total.get() < minSize) {
+                this.fillPool();
+            } else if (!closed && connections.getWaiters() > 0) {
+                this.replaceConnection();
+            }
+        }
+    }
+
+
+    /**
+     * Open connection in the freed slot for the borrowers, which wait in line.
+     */
+    private void replaceConnection() {
+        int opened = total.get();
+        if (opened >= maxSize || !total.compareAndSet(opened, opened + 1)) {
+            return; // Taken by someone else
+        }
+
+        try {
+            filler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    EmbeddedConnectionPool.this.openIdleConnection();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            total.decrementAndGet();
+        }
+    }
+
+
+    private boolean removeConnection(EmbeddedConnection conn) {
+        if (connections.remove(conn)) {
+            total.decrementAndGet();
+            metrics.connectionDestroyed();
+            return true;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Lease a connection. A new connection is opened only while the pool is below its maximum,
+     * otherwise the call waits for a returned one. The lease ends with the first close()
+     * of the returned connection.
+     *
+     * @return
+     * @throws SQLTransientConnectionException if no connection is available within the acquire timeout.
+     * @throws SQLException
+     */
+    public Connection getConnection() throws SQLException {
+        PoolBorrowEvent event = new PoolBorrowEvent();
+        event.begin();
+        EmbeddedConnection conn = null;
+        try {
+            conn = this.borrowConnection(event);
+            return new LeasedConnection(conn);
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.pool = name;
+                event.active = this.getActiveCount();
+                event.total = total.get();
+                event.waiting = connections.getWaiters();
+                event.failed = conn == null && !event.timedOut;
+                event.commit();
+            }
+        }
+    }
+
+
+    private EmbeddedConnection borrowConnection(PoolBorrowEvent event) throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is shut down.");
+        }
+
+        long started = System.nanoTime();
+        long deadline = started + TimeUnit.MILLISECONDS.toNanos(acquireTimeout);
+        try {
+            EmbeddedConnection embeddedConnection = connections.borrow(0, TimeUnit.NANOSECONDS);
+            while (true) {
+                if (embeddedConnection != null) {
+                    if (this.checkAlive(embeddedConnection)) {
+                        return this.recordLease(embeddedConnection, started);
+                    }
+
+                    embeddedConnection = connections.borrow(0, TimeUnit.NANOSECONDS);
+                    continue;
+                } else if (closed) {
+                    throw new SQLException("Connection pool is shut down.");
+                }
+
+                // Slots, freed while others wait, are filled for them
+                int opened = total.get();
+                if (opened < maxSize && connections.getWaiters() == 0) {
+                    if (total.compareAndSet(opened, opened + 1)) {
+                        return this.recordLease(this.openConnection(), started);
+                    }
+                    continue;
+                }
+
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    metrics.borrowTimedOut();
+                    event.timedOut = true;
+                    throw new SQLTransientConnectionException(String.format(
+                            "Connection is not available, request timed out after %dms (%s).", acquireTimeout, this.getState()));
+                }
+
+                embeddedConnection = connections.borrow(remaining, TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection.", ex);
+        }
+    }
+
+
+    /**
+     * Record the lease for the metrics and the leak detection. Stacks are captured for every n-th lease on average.
+     */
+    private EmbeddedConnection recordLease(EmbeddedConnection conn, long started) {
+        metrics.borrowed(System.nanoTime() - started);
+        int sampling = leakTraceSampling;
+        conn.recordLease(leakDetectionThreshold > 0 && sampling > 0
+                         && (sampling == 1 || ThreadLocalRandom.current().nextInt(sampling) == 0));
+        return conn;
+    }
+
+
+    /**
+     * Drop leased connection, which turned out to be broken, and close it.
+     * Connections of other pools are left intact.
+     *
+     * @param conn
+     */
+    public void evictConnection(Connection conn) {
+        if (conn instanceof LeasedConnection) {
+            EmbeddedConnection embeddedConnection = ((LeasedConnection) conn).detach();
+            if (embeddedConnection != null) {
+                this.retireConnection(embeddedConnection);
+            }
+        } else if (conn instanceof EmbeddedConnection) {
+            this.retireConnection((EmbeddedConnection) conn);
+        }
+    }
+
+
+    /**
+     * Mark leased connection as the current connection of a driver, which holds it until the driver
+     * is closed. Pinned leases are not reported as leaks. Like any lease, the connection is retired
+     * at its max lifetime only once it is returned.
+     * Connections of other pools are left intact.
+     *
+     * @param conn
+     */
+    public void pinConnection(Connection conn) {
+        EmbeddedConnection embeddedConnection = conn instanceof LeasedConnection ? ((LeasedConnection) conn).getEmbeddedConnection() : null;
+        if (embeddedConnection != null) {
+            embeddedConnection.pin();
+        }
     }
 
 
-    public synchronized EmbeddedConnection getConnection() throws SQLException {
-        for (int i = 0; i < connections.size(); i++) {
-            EmbeddedConnection conn = connections.get(i);
+    /**
+     * Validate borrowed connection, unless it was returned or validated within the skip window.
+     * Dead connection is removed from the pool and closed.
+     */
+    private boolean checkAlive(EmbeddedConnection conn) {
+        long now = System.currentTimeMillis();
+        if (now - conn.getLastAlive() <= validationSkipWindow) {
+            return true;
+        }
+
+        if (conn.validate()) {
+            conn.touch();
+            return true;
+        }
+
+        Logger.getLogger(EmbeddedConnectionPool.class.getName()).log(Level.WARNING, "Dropping dead connection ({0}).", this.getState());
+        this.retireConnection(conn);
+        return false;
+    }
+
 
-            if (conn.lease()) {
-                return conn;
+    /**
+     * Open new leased connection in the already reserved slot.
+     */
+    private EmbeddedConnection openConnection() throws SQLException {
+        Connection conn = null;
+        ConnectionOpenEvent event = new ConnectionOpenEvent();
+        event.begin();
+        try {
+            conn = this.factory.open();
+        } catch (SQLException ex) {
+            total.decrementAndGet();
+            throw ex;
+        } catch (RuntimeException ex) {
+            total.decrementAndGet();
+            throw ex;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.pool = name;
+                event.failed = conn == null;
+                event.commit();
             }
         }
 
-        Connection conn = DriverManager.getConnection(url, user, password);
         EmbeddedConnection embeddedConnection = new EmbeddedConnection(conn, this);
         embeddedConnection.lease();
         connections.add(embeddedConnection);
+        metrics.connectionCreated();
+
         return embeddedConnection;
     }
 
 
+    /**
+     * Get pool state for diagnostics.
+     *
+     * @return
+     */
+    public String getState() {
+        return String.format("total=%d, active=%d, idle=%d, waiting=%d, min=%d, max=%d",
+                             total.get(), this.getActiveCount(), this.getIdleCount(), connections.getWaiters(), minSize, maxSize);
+    }
+
+
+    int getActiveCount() {
+        int active = 0;
+        for (EmbeddedConnection conn : connections.values()) {
+            if (conn.inUse()) {
+                active++;
+            }
+        }
+
+        return active;
+    }
+
+
+    int getIdleCount() {
+        int idle = 0;
+        for (EmbeddedConnection conn : connections.values()) {
+            if (conn.isIdle()) {
+                idle++;
+            }
+        }
+
+        return idle;
+    }
+
+
+    int getTotalCount() {
+        return total.get();
+    }
+
+
+    int getWaitingCount() {
+        return connections.getWaiters();
+    }
+
+
     /**
      * 
      * @param conn
      */
-    public synchronized void returnConnection(EmbeddedConnection conn) {
-        conn.expireLease();
+    public void returnConnection(EmbeddedConnection conn) {
+        if (conn.inUse()) {
+            metrics.returned(System.nanoTime() - conn.getLeasedNanos());
+        }
+
+        if (closed || conn.isExpired(System.currentTimeMillis())) {
+            this.retireConnection(conn);
+        } else if (!conn.inUse()) {
+            return; // Removed meanwhile or returned twice
+        } else if (!conn.reset()) {
+            this.evictConnection(conn);
+        } else {
+            connections.requite(conn);
+        }
+    }
+
+    /**
+     * Set size of the prepared statements cache for each connection of the pool.
+     * Applies to the connections opened afterwards.
+     *
+     * @param statementCacheSize
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    public int getStatementCacheSize() {
+        return this.statementCacheSize;
     }
 
     public int getPoolSize() {
         return this.connections.size();
     }
+
+
+    /**
+     * Set pool size limits.
+     *
+     * @param minSize Connections to keep open, even if idle.
+     * @param maxSize Maximum of open connections.
+     */
+    public void setPoolSize(int minSize, int maxSize) {
+        if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException(String.format("Invalid pool size: min=%d, max=%d.", minSize, maxSize));
+        }
+
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+    }
+
+    public int getMinSize() {
+        return this.minSize;
+    }
+
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+
+    /**
+     * Set how long a borrower waits for a connection, when the pool is exhausted.
+     *
+     * @param acquireTimeout Milliseconds.
+     */
+    public void setAcquireTimeout(long acquireTimeout) {
+        this.acquireTimeout = Math.max(0, acquireTimeout);
+    }
+
+    public long getAcquireTimeout() {
+        return this.acquireTimeout;
+    }
+
+
+    /**
+     * Set how long a connection above minSize may stay idle before it is closed.
+     *
+     * @param idleTimeout Milliseconds, zero keeps idle connections.
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = Math.max(0, idleTimeout);
+    }
+
+    public long getIdleTimeout() {
+        return this.idleTimeout;
+    }
+
+
+    /**
+     * Set maximum lifetime of a connection. Applies to the connections opened afterwards.
+     *
+     * @param maxLifetime Milliseconds, zero keeps connections forever.
+     */
+    public void setMaxLifetime(long maxLifetime) {
+        this.maxLifetime = Math.max(0, maxLifetime);
+    }
+
+    public long getMaxLifetime() {
+        return this.maxLifetime;
+    }
+
+
+    /**
+     * Set how long a connection may stay idle before it is validated.
+     *
+     * @param keepaliveTime Milliseconds, zero disables keepalive.
+     */
+    public void setKeepaliveTime(long keepaliveTime) {
+        this.keepaliveTime = Math.max(0, keepaliveTime);
+    }
+
+    public long getKeepaliveTime() {
+        return this.keepaliveTime;
+    }
+
+
+    /**
+     * Set delay between maintenance runs.
+     *
+     * @param maintenanceInterval Milliseconds.
+     */
+    public void setMaintenanceInterval(long maintenanceInterval) {
+        if (maintenanceInterval <= 0) {
+            throw new IllegalArgumentException("Maintenance interval should be positive.");
+        }
+
+        this.maintenanceInterval = maintenanceInterval;
+        reaper.schedule(maintenanceInterval);
+    }
+
+    public long getMaintenanceInterval() {
+        return this.maintenanceInterval;
+    }
+
+
+    /**
+     * Set how many connections are opened in parallel in the background.
+     *
+     * @param fillThreads
+     */
+    public void setFillThreads(int fillThreads) {
+        fillThreads = Math.max(1, fillThreads);
+        if (fillThreads > filler.getMaximumPoolSize()) {
+            filler.setMaximumPoolSize(fillThreads);
+            filler.setCorePoolSize(fillThreads);
+        } else {
+            filler.setCorePoolSize(fillThreads);
+            filler.setMaximumPoolSize(fillThreads);
+        }
+    }
+
+    public int getFillThreads() {
+        return filler.getMaximumPoolSize();
+    }
+
+
+    /**
+     * Set timeout of the connection validation.
+     *
+     * @param validationTimeout Milliseconds, rounded up to seconds.
+     */
+    public void setValidationTimeout(long validationTimeout) {
+        this.validationTimeout = Math.max(1, validationTimeout);
+    }
+
+    public long getValidationTimeout() {
+        return this.validationTimeout;
+    }
+
+
+    /**
+     * Set how long after the last use a borrowed connection is not validated.
+     *
+     * @param validationSkipWindow Milliseconds, zero validates on every borrow.
+     */
+    public void setValidationSkipWindow(long validationSkipWindow) {
+        this.validationSkipWindow = Math.max(0, validationSkipWindow);
+    }
+
+    public long getValidationSkipWindow() {
+        return this.validationSkipWindow;
+    }
+
+
+    /**
+     * Set test query for the connection validation.
+     *
+     * @param validationQuery Query or null to use Connection.isValid().
+     */
+    public void setValidationQuery(String validationQuery) {
+        this.validationQuery = validationQuery == null || validationQuery.trim().isEmpty() ? null : validationQuery.trim();
+    }
+
+    public String getValidationQuery() {
+        return this.validationQuery;
+    }
+
+
+    /**
+     * Set how long a connection may be leased before it is reported as a possible leak.
+     * Leases are checked by the maintenance, so the report may come up to the maintenance interval later.
+     *
+     * @param leakDetectionThreshold Milliseconds, zero disables leak detection.
+     */
+    public void setLeakDetectionThreshold(long leakDetectionThreshold) {
+        this.leakDetectionThreshold = Math.max(0, leakDetectionThreshold);
+    }
+
+    public long getLeakDetectionThreshold() {
+        return this.leakDetectionThreshold;
+    }
+
+
+    /**
+     * Set how often the stack of the borrower is captured, while leak detection is on.
+     *
+     * @param leakTraceSampling Capture one of n leases: 1 captures every lease, zero none.
+     */
+    public void setLeakTraceSampling(int leakTraceSampling) {
+        this.leakTraceSampling = Math.max(0, leakTraceSampling);
+    }
+
+    public int getLeakTraceSampling() {
+        return this.leakTraceSampling;
+    }
 }
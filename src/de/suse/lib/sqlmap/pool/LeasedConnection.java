@@ -0,0 +1,365 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap.pool;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Pooled connection as seen by one borrower.
+ *
+ * Every lease gets its own handle, so the lease ends with the first close().
+ * Closing it again, e.g. by a previous holder, does nothing and can not return
+ * the connection of the next borrower. Calls on a closed handle fail.
+ *
+ * @author Bo Maryniuk
+ */
+class LeasedConnection implements Connection {
+    private static final AtomicIntegerFieldUpdater<LeasedConnection> CLOSED =
+            AtomicIntegerFieldUpdater.newUpdater(LeasedConnection.class, "closed");
+
+    private final EmbeddedConnection conn;
+    private volatile int closed;
+
+    LeasedConnection(EmbeddedConnection conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * End the lease. Only the first call gets the connection to return or evict it.
+     *
+     * @return null if the lease is already over.
+     */
+    EmbeddedConnection detach() {
+        return CLOSED.compareAndSet(this, 0, 1) ? this.conn : null;
+    }
+
+    /**
+     * Get the pooled connection of the lease.
+     *
+     * @return null if the lease is already over.
+     */
+    EmbeddedConnection getEmbeddedConnection() {
+        return this.closed == 0 ? this.conn : null;
+    }
+
+    private EmbeddedConnection target() throws SQLException {
+        if (this.closed != 0) {
+            throw new SQLException("Connection is closed.");
+        }
+
+        return this.conn;
+    }
+
+    private EmbeddedConnection clientTarget() throws SQLClientInfoException {
+        if (this.closed != 0) {
+            throw new SQLClientInfoException("Connection is closed.", null);
+        }
+
+        return this.conn;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        EmbeddedConnection embeddedConnection = this.detach();
+        if (embeddedConnection != null) {
+            embeddedConnection.close();
+        }
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return this.closed != 0 || this.conn.isClosed();
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return this.target().prepareStatement(sql);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql) throws SQLException {
+        return this.target().prepareCall(sql);
+    }
+
+    @Override
+    public Statement createStatement() throws SQLException {
+        return this.target().createStatement();
+    }
+
+    @Override
+    public String nativeSQL(String sql) throws SQLException {
+        return this.target().nativeSQL(sql);
+    }
+
+    @Override
+    public void setAutoCommit(boolean autoCommit) throws SQLException {
+        this.target().setAutoCommit(autoCommit);
+    }
+
+    @Override
+    public boolean getAutoCommit() throws SQLException {
+        return this.target().getAutoCommit();
+    }
+
+    @Override
+    public void commit() throws SQLException {
+        this.target().commit();
+    }
+
+    @Override
+    public void rollback() throws SQLException {
+        this.target().rollback();
+    }
+
+    @Override
+    public DatabaseMetaData getMetaData() throws SQLException {
+        return this.target().getMetaData();
+    }
+
+    @Override
+    public void setReadOnly(boolean readOnly) throws SQLException {
+        this.target().setReadOnly(readOnly);
+    }
+
+    @Override
+    public boolean isReadOnly() throws SQLException {
+        return this.target().isReadOnly();
+    }
+
+    @Override
+    public void setCatalog(String catalog) throws SQLException {
+        this.target().setCatalog(catalog);
+    }
+
+    @Override
+    public String getCatalog() throws SQLException {
+        return this.target().getCatalog();
+    }
+
+    @Override
+    public void setTransactionIsolation(int level) throws SQLException {
+        this.target().setTransactionIsolation(level);
+    }
+
+    @Override
+    public int getTransactionIsolation() throws SQLException {
+        return this.target().getTransactionIsolation();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return this.target().getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        this.target().clearWarnings();
+    }
+
+    @Override
+    public Statement createStatement(int i, int i1) throws SQLException {
+        return this.target().createStatement(i, i1);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String string, int i, int i1) throws SQLException {
+        return this.target().prepareStatement(string, i, i1);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String string, int i, int i1) throws SQLException {
+        return this.target().prepareCall(string, i, i1);
+    }
+
+    @Override
+    public Map<String, Class<?>> getTypeMap() throws SQLException {
+        return this.target().getTypeMap();
+    }
+
+    @Override
+    public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+        this.target().setTypeMap(map);
+    }
+
+    @Override
+    public void setHoldability(int i) throws SQLException {
+        this.target().setHoldability(i);
+    }
+
+    @Override
+    public int getHoldability() throws SQLException {
+        return this.target().getHoldability();
+    }
+
+    @Override
+    public Savepoint setSavepoint() throws SQLException {
+        return this.target().setSavepoint();
+    }
+
+    @Override
+    public Savepoint setSavepoint(String string) throws SQLException {
+        return this.target().setSavepoint(string);
+    }
+
+    @Override
+    public void rollback(Savepoint svpnt) throws SQLException {
+        this.target().rollback(svpnt);
+    }
+
+    @Override
+    public void releaseSavepoint(Savepoint svpnt) throws SQLException {
+        this.target().releaseSavepoint(svpnt);
+    }
+
+    @Override
+    public Statement createStatement(int i, int i1, int i2) throws SQLException {
+        return this.target().createStatement(i, i1, i2);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String string, int i, int i1, int i2) throws SQLException {
+        return this.target().prepareStatement(string, i, i1, i2);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String string, int i, int i1, int i2) throws SQLException {
+        return this.target().prepareCall(string, i, i1, i2);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String string, int i) throws SQLException {
+        return this.target().prepareStatement(string, i);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String string, int[] ints) throws SQLException {
+        return this.target().prepareStatement(string, ints);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String string, String[] strings) throws SQLException {
+        return this.target().prepareStatement(string, strings);
+    }
+
+    @Override
+    public Clob createClob() throws SQLException {
+        return this.target().createClob();
+    }
+
+    @Override
+    public Blob createBlob() throws SQLException {
+        return this.target().createBlob();
+    }
+
+    @Override
+    public NClob createNClob() throws SQLException {
+        return this.target().createNClob();
+    }
+
+    @Override
+    public SQLXML createSQLXML() throws SQLException {
+        return this.target().createSQLXML();
+    }
+
+    @Override
+    public boolean isValid(int i) throws SQLException {
+        return this.target().isValid(i);
+    }
+
+    @Override
+    public void setClientInfo(String string, String string1) throws SQLClientInfoException {
+        this.clientTarget().setClientInfo(string, string1);
+    }
+
+    @Override
+    public void setClientInfo(Properties prprts) throws SQLClientInfoException {
+        this.clientTarget().setClientInfo(prprts);
+    }
+
+    @Override
+    public String getClientInfo(String string) throws SQLException {
+        return this.target().getClientInfo(string);
+    }
+
+    @Override
+    public Properties getClientInfo() throws SQLException {
+        return this.target().getClientInfo();
+    }
+
+    @Override
+    public Array createArrayOf(String string, Object[] os) throws SQLException {
+        return this.target().createArrayOf(string, os);
+    }
+
+    @Override
+    public Struct createStruct(String string, Object[] os) throws SQLException {
+        return this.target().createStruct(string, os);
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> type) throws SQLException {
+        return this.target().unwrap(type);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> type) throws SQLException {
+        return this.target().isWrapperFor(type);
+    }
+
+    @Override
+    public void setSchema(String schema) throws SQLException {
+        this.target().setSchema(schema);
+    }
+
+    @Override
+    public String getSchema() throws SQLException {
+        return this.target().getSchema();
+    }
+
+    @Override
+    public void abort(Executor executor) throws SQLException {
+        this.target().abort(executor);
+    }
+
+    @Override
+    public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+        this.target().setNetworkTimeout(executor, milliseconds);
+    }
+
+    @Override
+    public int getNetworkTimeout() throws SQLException {
+        return this.target().getNetworkTimeout();
+    }
+}
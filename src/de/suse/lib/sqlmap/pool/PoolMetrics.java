@@ -0,0 +1,212 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap.pool;
+
+import de.suse.lib.sqlmap.metrics.Histogram;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms of a connection pool.
+ *
+ * Everything is recorded in striped counters, so borrowing threads do not contend
+ * on the instrumentation. Pool sizes are read from the pool when asked.
+ *
+ * @author Bo Maryniuk
+ */
+public class PoolMetrics implements PoolMetricsMBean {
+    private final EmbeddedConnectionPool pool;
+    private final LongAdder created;
+    private final LongAdder destroyed;
+    private final LongAdder timeouts;
+    private final Histogram borrowWait;
+    private final Histogram usage;
+
+
+    PoolMetrics(EmbeddedConnectionPool pool) {
+        this.pool = pool;
+        this.created = new LongAdder();
+        this.destroyed = new LongAdder();
+        this.timeouts = new LongAdder();
+        this.borrowWait = new Histogram();
+        this.usage = new Histogram();
+    }
+
+
+    void connectionCreated() {
+        this.created.increment();
+    }
+
+
+    void connectionDestroyed() {
+        this.destroyed.increment();
+    }
+
+
+    void borrowTimedOut() {
+        this.timeouts.increment();
+    }
+
+
+    void borrowed(long waitNanos) {
+        this.borrowWait.record(waitNanos / 1000);
+    }
+
+
+    void returned(long usageNanos) {
+        this.usage.record(usageNanos / 1000);
+    }
+
+
+    public Histogram getBorrowWait() {
+        return this.borrowWait;
+    }
+
+
+    public Histogram getUsage() {
+        return this.usage;
+    }
+
+
+    @Override
+    public int getActiveConnections() {
+        return this.pool.getActiveCount();
+    }
+
+
+    @Override
+    public int getIdleConnections() {
+        return this.pool.getIdleCount();
+    }
+
+
+    @Override
+    public int getTotalConnections() {
+        return this.pool.getTotalCount();
+    }
+
+
+    @Override
+    public int getPendingThreads() {
+        return this.pool.getWaitingCount();
+    }
+
+
+    @Override
+    public int getMinSize() {
+        return this.pool.getMinSize();
+    }
+
+
+    @Override
+    public int getMaxSize() {
+        return this.pool.getMaxSize();
+    }
+
+
+    @Override
+    public long getCreatedConnections() {
+        return this.created.sum();
+    }
+
+
+    @Override
+    public long getDestroyedConnections() {
+        return this.destroyed.sum();
+    }
+
+
+    @Override
+    public long getTimeouts() {
+        return this.timeouts.sum();
+    }
+
+
+    @Override
+    public long getBorrowCount() {
+        return this.borrowWait.getCount();
+    }
+
+
+    @Override
+    public double getBorrowWaitMean() {
+        return this.borrowWait.getMean();
+    }
+
+
+    @Override
+    public long getBorrowWaitP50() {
+        return this.borrowWait.getPercentile(50);
+    }
+
+
+    @Override
+    public long getBorrowWaitP99() {
+        return this.borrowWait.getPercentile(99);
+    }
+
+
+    @Override
+    public long getBorrowWaitMax() {
+        return this.borrowWait.getMax();
+    }
+
+
+    @Override
+    public long[] getBorrowWaitHistogram() {
+        return this.borrowWait.getBucketCounts();
+    }
+
+
+    @Override
+    public double getUsageMean() {
+        return this.usage.getMean();
+    }
+
+
+    @Override
+    public long getUsageP50() {
+        return this.usage.getPercentile(50);
+    }
+
+
+    @Override
+    public long getUsageP99() {
+        return this.usage.getPercentile(99);
+    }
+
+
+    @Override
+    public long getUsageMax() {
+        return this.usage.getMax();
+    }
+
+
+    @Override
+    public long[] getUsageHistogram() {
+        return this.usage.getBucketCounts();
+    }
+
+
+    @Override
+    public void reset() {
+        this.created.reset();
+        this.destroyed.reset();
+        this.timeouts.reset();
+        this.borrowWait.reset();
+        this.usage.reset();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap.pool;
+
+/**
+ * JMX view of a connection pool. Times are in microseconds.
+ *
+ * @author Bo Maryniuk
+ */
+public interface PoolMetricsMBean {
+    public int getActiveConnections();
+
+    public int getIdleConnections();
+
+    public int getTotalConnections();
+
+    public int getPendingThreads();
+
+    public int getMinSize();
+
+    public int getMaxSize();
+
+    public long getCreatedConnections();
+
+    public long getDestroyedConnections();
+
+    public long getTimeouts();
+
+    public long getBorrowCount();
+
+    public double getBorrowWaitMean();
+
+    public long getBorrowWaitP50();
+
+    public long getBorrowWaitP99();
+
+    public long getBorrowWaitMax();
+
+    /**
+     * Get borrow wait histogram in microseconds, bounds of the buckets are given by Histogram.getBucketBound().
+     *
+     * @return
+     */
+    public long[] getBorrowWaitHistogram();
+
+    public double getUsageMean();
+
+    public long getUsageP50();
+
+    public long getUsageP99();
+
+    public long getUsageMax();
+
+    /**
+     * Get lease time histogram in microseconds, bounds of the buckets are given by Histogram.getBucketBound().
+     *
+     * @return
+     */
+    public long[] getUsageHistogram();
+
+    /**
+     * Reset counters and histograms.
+     */
+    public void reset();
+}
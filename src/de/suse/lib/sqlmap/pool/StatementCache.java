@@ -0,0 +1,222 @@
+/*
+ * Copyright 2011 SUSE Linux Products GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.suse.lib.sqlmap.pool;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded LRU cache of prepared statements of one physical connection, keyed by the final SQL text.
+ *
+ * Statements are taken out of the cache by prepare() and put back by release(),
+ * so the same statement is never handed out twice at the same time.
+ * Released statements are cleared and reused instead of being prepared again.
+ *
+ * @author Bo Maryniuk
+ */
+public class StatementCache {
+    public static final int DEFAULT_SIZE = 64;
+
+    private final Connection connection;
+    private final int size;
+    private final LinkedHashMap<String, PreparedStatement> idle;
+    private final Map<PreparedStatement, String> leased;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+
+    /**
+     * Create statement cache.
+     *
+     * @param connection Physical connection.
+     * @param size Maximum of idle statements. Zero disables caching.
+     */
+    public StatementCache(Connection connection, int size) {
+        this.connection = connection;
+        this.size = Math.max(0, size);
+        this.idle = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+        this.leased = new IdentityHashMap<PreparedStatement, String>();
+    }
+
+
+    /**
+     * Get the statement cache of the pooled connection.
+     *
+     * @param connection
+     * @return cache or null, if the connection is not coming from the EmbeddedConnectionPool.
+     */
+    public static StatementCache of(Connection connection) {
+        if (connection instanceof LeasedConnection) {
+            connection = ((LeasedConnection) connection).getEmbeddedConnection();
+        }
+
+        return connection instanceof EmbeddedConnection ? ((EmbeddedConnection) connection).getStatementCache() : null;
+    }
+
+
+    /**
+     * Get cached statement or prepare a new one.
+     *
+     * @param sql
+     * @return
+     * @throws SQLException
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement;
+        synchronized (this) {
+            statement = this.idle.remove(sql);
+            if (statement != null) {
+                this.hits++;
+                this.leased.put(statement, sql);
+                return statement;
+            }
+            this.misses++;
+        }
+
+        statement = this.connection.prepareStatement(sql);
+        synchronized (this) {
+            this.leased.put(statement, sql);
+        }
+
+        return statement;
+    }
+
+
+    /**
+     * Return statement to the cache. Statements that were not prepared
+     * by this cache or do not fit into it are closed.
+     *
+     * @param statement
+     */
+    public void release(PreparedStatement statement) {
+        if (statement == null) {
+            return;
+        }
+
+        String sql;
+        synchronized (this) {
+            sql = this.leased.remove(statement);
+        }
+
+        if (sql == null || this.size == 0) {
+            StatementCache.close(statement);
+            return;
+        }
+
+        try {
+            statement.clearParameters();
+            statement.clearBatch();
+            statement.clearWarnings();
+        } catch (SQLException ex) {
+            StatementCache.close(statement);
+            return;
+        }
+
+        List<PreparedStatement> evicted = new ArrayList<PreparedStatement>();
+        synchronized (this) {
+            PreparedStatement duplicate = this.idle.put(sql, statement);
+            if (duplicate != null) {
+                evicted.add(duplicate);
+                this.evictions++;
+            }
+
+            Iterator<PreparedStatement> eldest = this.idle.values().iterator();
+            while (this.idle.size() > this.size) {
+                evicted.add(eldest.next());
+                eldest.remove();
+                this.evictions++;
+            }
+        }
+
+        for (int i = 0; i < evicted.size(); i++) {
+            StatementCache.close(evicted.get(i));
+        }
+    }
+
+
+    /**
+     * Check if the statement has been prepared by this cache and is not yet released.
+     *
+     * @param statement
+     * @return
+     */
+    public synchronized boolean isLeased(PreparedStatement statement) {
+        return this.leased.containsKey(statement);
+    }
+
+
+    /**
+     * Close all cached statements, including leased ones.
+     */
+    public void clear() {
+        List<PreparedStatement> statements;
+        synchronized (this) {
+            statements = new ArrayList<PreparedStatement>(this.idle.values());
+            statements.addAll(this.leased.keySet());
+            this.idle.clear();
+            this.leased.clear();
+        }
+
+        for (int i = 0; i < statements.size(); i++) {
+            StatementCache.close(statements.get(i));
+        }
+    }
+
+
+    private static void close(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ex) {
+            Logger.getLogger(StatementCache.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+
+
+    public Connection getConnection() {
+        return this.connection;
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    public synchronized int getSize() {
+        return this.idle.size();
+    }
+
+    public int getMaxSize() {
+        return this.size;
+    }
+}